@@ -0,0 +1,82 @@
+package de.orfap.fap.backend.benchmark;
+
+import de.orfap.fap.backend.controller.DateBuckets;
+import de.orfap.fap.backend.controller.DateNormalizer;
+import de.orfap.fap.backend.domain.TimeSteps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.benchmark
+ * Author(s): Rene Zarwel
+ * Date: 20.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ *
+ * Measures normalizing and formatting of single dates for every timestep.
+ * DateBuckets is measured next to the DateNormalizer as reference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateNormalizerBenchmark {
+
+  private static final int DATES = 1024;
+
+  @Param({"DAY_OF_WEEK", "MONTH", "YEAR", "WEEK_OF_YEAR"})
+  TimeSteps timestep;
+
+  private DateNormalizer normalizer;
+  private DateBuckets buckets;
+  private Date[] dates;
+  private Date[] normalized;
+  private int index;
+
+  @Setup
+  public void setup() {
+    normalizer = new DateNormalizer(timestep);
+    buckets = DateBuckets.of(timestep);
+    dates = RouteFixtures.dates(DATES, 42);
+
+    normalized = new Date[DATES];
+    for (int i = 0; i < DATES; i++)
+      normalized[i] = normalizer.normalizeDate(dates[i]);
+  }
+
+  private int next() {
+    return index = (index + 1) & (DATES - 1);
+  }
+
+  @Benchmark
+  public Date normalizeDate() {
+    return normalizer.normalizeDate(dates[next()]);
+  }
+
+  @Benchmark
+  public String format() {
+    return normalizer.format(normalized[next()]);
+  }
+
+  @Benchmark
+  public int bucketOf() {
+    return buckets.bucketOf(dates[next()]);
+  }
+}
@@ -0,0 +1,93 @@
+package de.orfap.fap.backend.benchmark;
+
+import de.orfap.fap.backend.controller.DateNormalizer;
+import de.orfap.fap.backend.controller.RouteController;
+import de.orfap.fap.backend.domain.QuantitiveValue;
+import de.orfap.fap.backend.domain.Route;
+import de.orfap.fap.backend.domain.TimeSteps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.benchmark
+ * Author(s): Rene Zarwel
+ * Date: 20.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ *
+ * Measures the in-memory steps of the route filter on synthetic routes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class FilterPipelineBenchmark {
+
+  @Param({"10000", "1000000", "10000000"})
+  int size;
+
+  @Param({"DAY_OF_WEEK", "MONTH", "YEAR", "WEEK_OF_YEAR"})
+  TimeSteps timestep;
+
+  private final RouteController controller = new RouteController();
+
+  private DateNormalizer normalizer;
+  private List<Route> routes;
+  private Set<Date> keys;
+
+  @Setup(Level.Trial)
+  public void createRoutes() {
+    normalizer = new DateNormalizer(timestep);
+    routes = RouteFixtures.routes(size, 42);
+
+    keys = controller.getDateRangeKeys(RouteFixtures.RANGE_FROM, RouteFixtures.RANGE_TO, timestep, normalizer);
+  }
+
+  @Benchmark
+  public Set<Date> getDateRangeKeys() {
+    return controller.getDateRangeKeys(RouteFixtures.RANGE_FROM, RouteFixtures.RANGE_TO, timestep, normalizer);
+  }
+
+  @Benchmark
+  public Map<String, List<Double>> mapByTime() {
+    return controller.mapByTime(normalizer, QuantitiveValue.FLIGHTS, keys, routes);
+  }
+
+  @Benchmark
+  public Map<String, List<Double>> mapToQuantitiveByAirline() {
+    return controller.mapToQuantitive(normalizer, QuantitiveValue.FLIGHTS, keys, controller.mapByAirline(routes));
+  }
+
+  @Benchmark
+  public Map<String, List<Double>> mapToQuantitiveByDestination() {
+    return controller.mapToQuantitive(normalizer, QuantitiveValue.FLIGHTS, keys, controller.mapByDestination(routes));
+  }
+
+  @Benchmark
+  public Map<String, List<Double>> mapToQuantitiveByDestinationParallel() {
+    return controller.mapToQuantitive(normalizer, QuantitiveValue.FLIGHTS, keys, controller.mapByDestination(routes),
+        ForkJoinPool.commonPool());
+  }
+}
@@ -0,0 +1,95 @@
+package de.orfap.fap.backend.benchmark;
+
+import de.orfap.fap.backend.domain.Airline;
+import de.orfap.fap.backend.domain.Market;
+import de.orfap.fap.backend.domain.Route;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.benchmark
+ * Author(s): Rene Zarwel
+ * Date: 20.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ *
+ * Synthetic routes for the benchmarks.
+ * All data is drawn from a seeded random, so every run measures the same routes.
+ */
+final class RouteFixtures {
+
+  static final int AIRLINES = 20;
+  static final int MARKETS = 50;
+
+  /** Start of the generated date range (included). */
+  static final Date RANGE_FROM = new GregorianCalendar(2014, Calendar.JANUARY, 1).getTime();
+
+  /** End of the generated date range (excluded). */
+  static final Date RANGE_TO = new GregorianCalendar(2016, Calendar.JANUARY, 1).getTime();
+
+  private RouteFixtures() {
+  }
+
+  /**
+   * Creates the given count of routes spread over the fixture range.
+   *
+   * @param count of routes.
+   * @param seed  of the random source.
+   * @return generated routes.
+   */
+  static List<Route> routes(int count, long seed) {
+    Random random = new Random(seed);
+
+    List<Airline> airlines = new ArrayList<>(AIRLINES);
+    for (int i = 0; i < AIRLINES; i++)
+      airlines.add(new Airline("Airline " + i, String.valueOf(10000 + i)));
+
+    List<Market> markets = new ArrayList<>(MARKETS);
+    for (int i = 0; i < MARKETS; i++)
+      markets.add(new Market("Market " + i, String.valueOf(30000 + i)));
+
+    long from = RANGE_FROM.getTime();
+    long span = RANGE_TO.getTime() - from;
+
+    List<Route> routes = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      routes.add(Route.builder()
+          .date(new Date(from + (long) (random.nextDouble() * span)))
+          .airline(airlines.get(random.nextInt(AIRLINES)))
+          .source(markets.get(random.nextInt(MARKETS)))
+          .destination(markets.get(random.nextInt(MARKETS)))
+          .flightCount(1 + random.nextInt(10))
+          .passengerCount(random.nextInt(300))
+          .cancelled(random.nextInt(20) == 0 ? 1 : 0)
+          .delays(random.nextInt(4) == 0 ? random.nextInt(120) : 0)
+          .build());
+    }
+    return routes;
+  }
+
+  /**
+   * Creates the given count of dates spread over the fixture range.
+   *
+   * @param count of dates.
+   * @param seed  of the random source.
+   * @return generated dates.
+   */
+  static Date[] dates(int count, long seed) {
+    Random random = new Random(seed);
+    long from = RANGE_FROM.getTime();
+    long span = RANGE_TO.getTime() - from;
+
+    Date[] dates = new Date[count];
+    for (int i = 0; i < count; i++)
+      dates[i] = new Date(from + (long) (random.nextDouble() * span));
+    return dates;
+  }
+}
@@ -0,0 +1,214 @@
+package de.orfap.fap.backend.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.cache
+ * Author(s): Rene Zarwel
+ * Date: 29.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Spring cache bounded by the estimated size of its entries.
+ *
+ * Backed by Caffeine, so entries are evicted by W-TinyLFU when the maximum
+ * weight is reached and expire after a fixed time.
+ * Load times are measured from a miss to the put of the same key by the same thread,
+ * which is how @Cacheable fills a cache.
+ */
+public class BoundedCache implements org.springframework.cache.Cache {
+
+  private static final Object NULL = new Object();
+
+  private final String name;
+
+  private final CacheProperties.Spec spec;
+
+  private final Cache<Object, Object> cache;
+
+  private final ThreadLocal<Miss> lastMiss = new ThreadLocal<>();
+
+  private final LongAdder loadCount = new LongAdder();
+
+  private final LongAdder loadNanos = new LongAdder();
+
+  private final SingleFlight flights = new SingleFlight();
+
+  public BoundedCache(String name, CacheProperties.Spec spec) {
+    this.name = name;
+    this.spec = spec;
+
+    Caffeine<Object, Object> builder = Caffeine.newBuilder()
+        .maximumWeight(spec.getMaximumWeight())
+        .weigher(new CacheWeigher())
+        .recordStats();
+
+    if (spec.getExpireAfterWrite() > 0)
+      builder.expireAfterWrite(spec.getExpireAfterWrite(), TimeUnit.SECONDS);
+
+    cache = builder.build();
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public Cache<Object, Object> getNativeCache() {
+    return cache;
+  }
+
+  @Override
+  public ValueWrapper get(Object key) {
+    Object value = cache.getIfPresent(key);
+
+    if (value == null) {
+      lastMiss.set(new Miss(key, System.nanoTime()));
+      return null;
+    }
+
+    return new SimpleValueWrapper(value == NULL ? null : value);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(Object key, Class<T> type) {
+    ValueWrapper wrapper = get(key);
+    Object value = wrapper == null ? null : wrapper.get();
+
+    if (value != null && type != null && !type.isInstance(value))
+      throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+
+    return (T) value;
+  }
+
+  /**
+   * Returns the cached value or computes it once, while other callers of the same key wait.
+   *
+   * @param key         of value
+   * @param valueLoader to compute a missing value
+   * @return cached or computed value
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(Object key, Callable<T> valueLoader) {
+    Object value = cache.get(key, missing -> {
+      long started = System.nanoTime();
+      try {
+        Object loaded = valueLoader.call();
+        return loaded == null ? NULL : loaded;
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IllegalStateException("Loading of cache value failed", e);
+      } finally {
+        recordLoad(started);
+      }
+    });
+
+    return value == NULL ? null : (T) value;
+  }
+
+  @Override
+  public void put(Object key, Object value) {
+    cache.put(key, value == null ? NULL : value);
+
+    Miss miss = lastMiss.get();
+    if (miss != null && miss.key.equals(key)) {
+      lastMiss.remove();
+      recordLoad(miss.started);
+    }
+  }
+
+  @Override
+  public ValueWrapper putIfAbsent(Object key, Object value) {
+    Object existing = cache.asMap().putIfAbsent(key, value == null ? NULL : value);
+    return existing == null ? null : new SimpleValueWrapper(existing == NULL ? null : existing);
+  }
+
+  @Override
+  public void evict(Object key) {
+    cache.invalidate(key);
+  }
+
+  @Override
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Computes a value to cache, sharing the computation with concurrent callers of an equal key.
+   * Used behind @Cacheable, so concurrent misses compute only once.
+   *
+   * @param key    of value
+   * @param loader to compute value
+   * @return computed or shared value
+   */
+  public <T> T coalesce(Object key, Supplier<T> loader) {
+    return flights.load(key, loader);
+  }
+
+  /**
+   * @return copy of all keys
+   */
+  public Collection<Object> keys() {
+    return new ArrayList<>(cache.asMap().keySet());
+  }
+
+  /**
+   * @return current statistics of this cache
+   */
+  public CacheStatistics getStatistics() {
+    //Apply pending writes, so sizes are up to date
+    cache.cleanUp();
+
+    CacheStats stats = cache.stats();
+    long loads = loadCount.sum();
+
+    return CacheStatistics.builder()
+        .name(name)
+        .size(cache.estimatedSize())
+        .weight(cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L))
+        .maximumWeight(spec.getMaximumWeight())
+        .expireAfterWrite(spec.getExpireAfterWrite())
+        .hitCount(stats.hitCount())
+        .missCount(stats.missCount())
+        .hitRate(stats.hitRate())
+        .evictionCount(stats.evictionCount())
+        .loadCount(loads)
+        .averageLoadMillis(loads == 0 ? 0 : loadNanos.sum() / (loads * 1_000_000.0))
+        .flightCount(flights.getFlightCount())
+        .coalescedCount(flights.getCoalescedCount())
+        .build();
+  }
+
+  private void recordLoad(long started) {
+    loadCount.increment();
+    loadNanos.add(System.nanoTime() - started);
+  }
+
+  /**
+   * Last miss of a thread.
+   */
+  private static final class Miss {
+    final Object key;
+    final long started;
+
+    Miss(Object key, long started) {
+      this.key = key;
+      this.started = started;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package de.orfap.fap.backend.cache;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.cache
+ * Author(s): Rene Zarwel
+ * Date: 29.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Creates a {@link BoundedCache} for every requested cache name
+ * with the limits configured in {@link CacheProperties}.
+ */
+public class BoundedCacheManager implements CacheManager {
+
+  private final CacheProperties properties;
+
+  private final ConcurrentMap<String, BoundedCache> caches = new ConcurrentHashMap<>();
+
+  public BoundedCacheManager(CacheProperties properties) {
+    this.properties = properties;
+  }
+
+  @Override
+  public Cache getCache(String name) {
+    return caches.computeIfAbsent(name, cacheName -> new BoundedCache(cacheName, properties.getSpec(cacheName)));
+  }
+
+  @Override
+  public Collection<String> getCacheNames() {
+    return Collections.unmodifiableSet(caches.keySet());
+  }
+
+  /**
+   * @return statistics of all caches created so far
+   */
+  public List<CacheStatistics> getStatistics() {
+    List<CacheStatistics> statistics = new ArrayList<>();
+    caches.values().forEach(cache -> statistics.add(cache.getStatistics()));
+    statistics.sort((a, b) -> a.getName().compareTo(b.getName()));
+    return statistics;
+  }
+}
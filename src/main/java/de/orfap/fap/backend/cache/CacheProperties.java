@@ -0,0 +1,57 @@
+package de.orfap.fap.backend.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.cache
+ * Author(s): Rene Zarwel
+ * Date: 29.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Limits of the caches, bound to fap.cache.*
+ */
+@Data
+@ConfigurationProperties(prefix = "fap.cache")
+public class CacheProperties {
+
+  /**
+   * Limits of caches without own limits.
+   */
+  private Spec defaults = new Spec();
+
+  /**
+   * Limits by cache name.
+   */
+  private Map<String, Spec> caches = new HashMap<>();
+
+  /**
+   * Limits of a cache.
+   *
+   * @param name of cache
+   * @return limits of the cache or the defaults
+   */
+  public Spec getSpec(String name) {
+    return caches.getOrDefault(name, defaults);
+  }
+
+  @Data
+  public static class Spec {
+
+    /**
+     * Maximum estimated size of all entries in bytes.
+     */
+    private long maximumWeight = 16 * 1024 * 1024;
+
+    /**
+     * Seconds after an entry was written until it expires. 0 keeps entries until evicted.
+     */
+    private long expireAfterWrite = 3600;
+  }
+}
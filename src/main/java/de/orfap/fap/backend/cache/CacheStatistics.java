@@ -0,0 +1,58 @@
+package de.orfap.fap.backend.cache;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.cache
+ * Author(s): Rene Zarwel
+ * Date: 29.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Snapshot of the statistics of a cache.
+ */
+@Data
+@Builder
+public class CacheStatistics {
+
+  String name;
+
+  long size;
+
+  /**
+   * Estimated bytes of all entries.
+   */
+  long weight;
+
+  long maximumWeight;
+
+  long expireAfterWrite;
+
+  long hitCount;
+
+  long missCount;
+
+  double hitRate;
+
+  long evictionCount;
+
+  /**
+   * Computed values put into the cache after a miss.
+   */
+  long loadCount;
+
+  double averageLoadMillis;
+
+  /**
+   * Computations started by {@link BoundedCache#coalesce}.
+   */
+  long flightCount;
+
+  /**
+   * Loads which shared the computation of a concurrent caller instead of computing.
+   */
+  long coalescedCount;
+}
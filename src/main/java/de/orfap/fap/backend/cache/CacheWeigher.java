@@ -0,0 +1,95 @@
+package de.orfap.fap.backend.cache;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+import de.orfap.fap.backend.controller.EncodedFilterResponses;
+import de.orfap.fap.backend.controller.FilterResponse;
+import de.orfap.fap.backend.domain.FilterKey;
+import de.orfap.fap.backend.domain.Route;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.cache
+ * Author(s): Rene Zarwel
+ * Date: 29.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Estimates the heap size of cache entries in bytes.
+ *
+ * Sizes are rough numbers for a 64 bit JVM with compressed oops.
+ * Airlines and markets of routes are shared, so they are not counted.
+ */
+public class CacheWeigher implements Weigher<Object, Object> {
+
+  private static final long OBJECT = 16;
+  private static final long REFERENCE = 4;
+
+  /**
+   * Route with its date and id, without shared airlines and markets.
+   */
+  private static final long ROUTE = 56 + 24 + 40;
+
+  @Override
+  public int weigh(Object key, Object value) {
+    return (int) Math.min(estimate(key) + estimate(value), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Estimated size of an object graph.
+   *
+   * @param value to estimate
+   * @return size in bytes
+   */
+  public static long estimate(Object value) {
+    if (value == null || value instanceof Enum || value instanceof Boolean)
+      return 0;
+    if (value instanceof Route)
+      return ROUTE;
+    if (value instanceof Number || value instanceof Character)
+      return OBJECT + 8;
+    if (value instanceof Date)
+      return OBJECT + 8;
+    if (value instanceof String)
+      return OBJECT + 8 + OBJECT + 2L * ((String) value).length();
+    if (value instanceof byte[])
+      return OBJECT + ((byte[]) value).length;
+
+    if (value instanceof Collection) {
+      long size = OBJECT + 16;
+      for (Object element : (Collection<?>) value)
+        size += REFERENCE + estimate(element);
+      return size;
+    }
+
+    if (value instanceof Map) {
+      long size = OBJECT + 32;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+        size += 32 + estimate(entry.getKey()) + estimate(entry.getValue());
+      return size;
+    }
+
+    if (value instanceof FilterResponse) {
+      FilterResponse response = (FilterResponse) value;
+      return OBJECT + 4 * REFERENCE + estimate(response.getX()) + estimate(response.getData());
+    }
+
+    if (value instanceof EncodedFilterResponses.Entry)
+      return OBJECT + 8 + 2 * REFERENCE + estimate(((EncodedFilterResponses.Entry) value).getBody());
+
+    if (value instanceof EncodedFilterResponses.Key)
+      return OBJECT + 2 * REFERENCE + estimate(((EncodedFilterResponses.Key) value).getFilter());
+
+    if (value instanceof FilterKey) {
+      FilterKey key = (FilterKey) value;
+      return OBJECT + 7 * REFERENCE + 2 * (OBJECT + 8)
+          + estimate(key.getAirlines()) + estimate(key.getDestinations());
+    }
+
+    return OBJECT + 48;
+  }
+}
@@ -0,0 +1,84 @@
+package de.orfap.fap.backend.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.cache
+ * Author(s): Rene Zarwel
+ * Date: 03.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Coalesces concurrent loads of equal keys.
+ *
+ * The first caller of a key computes the value, all callers arriving until
+ * it is done wait and get the same value or exception.
+ * No lock is held while computing, so loads of other keys never wait.
+ */
+public class SingleFlight {
+
+  private final ConcurrentMap<Object, CompletableFuture<Object>> flights = new ConcurrentHashMap<>();
+
+  private final LongAdder flightCount = new LongAdder();
+
+  private final LongAdder coalescedCount = new LongAdder();
+
+  /**
+   * Computes a value or waits for the computation of an equal key in progress.
+   *
+   * @param key    of value
+   * @param loader to compute value
+   * @return computed or shared value
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T load(Object key, Supplier<T> loader) {
+    CompletableFuture<Object> flight = new CompletableFuture<>();
+    CompletableFuture<Object> running = flights.putIfAbsent(key, flight);
+
+    if (running != null) {
+      coalescedCount.increment();
+      try {
+        return (T) running.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException)
+          throw (RuntimeException) e.getCause();
+        if (e.getCause() instanceof Error)
+          throw (Error) e.getCause();
+        throw e;
+      }
+    }
+
+    flightCount.increment();
+    try {
+      T value = loader.get();
+      flight.complete(value);
+      return value;
+    } catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      flights.remove(key, flight);
+    }
+  }
+
+  /**
+   * @return computations started
+   */
+  public long getFlightCount() {
+    return flightCount.sum();
+  }
+
+  /**
+   * @return loads which waited for the computation of another caller
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.sum();
+  }
+}
@@ -0,0 +1,28 @@
+package de.orfap.fap.backend.configure;
+
+import de.orfap.fap.backend.cache.BoundedCacheManager;
+import de.orfap.fap.backend.cache.CacheProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.configure
+ * Author(s): Rene Zarwel
+ * Date: 29.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Bounds all caches by estimated size and time, see fap.cache.* properties.
+ */
+@Configuration
+@EnableConfigurationProperties(CacheProperties.class)
+public class CacheConfig {
+
+  @Bean
+  public BoundedCacheManager cacheManager(CacheProperties properties) {
+    return new BoundedCacheManager(properties);
+  }
+}
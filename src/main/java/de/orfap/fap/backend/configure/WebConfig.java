@@ -0,0 +1,42 @@
+package de.orfap.fap.backend.configure;
+
+import de.orfap.fap.backend.controller.FilterResponseConverter;
+import de.orfap.fap.backend.controller.YearRoutesETagInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.List;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.configure
+ * Author(s): Rene Zarwel
+ * Date: 01.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Offers the binary filter response as alternative to JSON.
+ *
+ * The converter is added last, so JSON stays the default if the Accept header allows both.
+ * Conditional requests of routes by year are answered by {@link YearRoutesETagInterceptor}.
+ */
+@Configuration
+public class WebConfig extends WebMvcConfigurerAdapter {
+
+  @Autowired
+  YearRoutesETagInterceptor yearRoutesETagInterceptor;
+
+  @Override
+  public void addInterceptors(InterceptorRegistry registry) {
+    registry.addInterceptor(yearRoutesETagInterceptor).addPathPatterns("/routes/search/findByYear");
+  }
+
+  @Override
+  public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+    converters.add(new FilterResponseConverter());
+  }
+}
@@ -0,0 +1,39 @@
+package de.orfap.fap.backend.controller;
+
+import de.orfap.fap.backend.cache.BoundedCacheManager;
+import de.orfap.fap.backend.cache.CacheStatistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.controller
+ * Author(s): Rene Zarwel
+ * Date: 29.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Provides the statistics of all caches.
+ */
+@RestController
+@RequestMapping("/caches")
+public class CacheController {
+
+  @Autowired
+  BoundedCacheManager cacheManager;
+
+  /**
+   * Statistics of all caches.
+   *
+   * @return hits, misses, evictions, load times and sizes per cache
+   */
+  @RequestMapping(method = RequestMethod.GET)
+  public List<CacheStatistics> statistics() {
+    return cacheManager.getStatistics();
+  }
+}
@@ -0,0 +1,279 @@
+package de.orfap.fap.backend.controller;
+
+import de.orfap.fap.backend.domain.TimeSteps;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.controller
+ * Author(s): Rene Zarwel
+ * Date: 24.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Maps dates to integer buckets of a timestep with plain arithmetic.
+ *
+ * Gives the same buckets as the {@link DateNormalizer}, but without formatting and parsing:
+ * <ul>
+ *   <li>DAY_OF_WEEK: 1 (Monday) to 7 (Sunday)</li>
+ *   <li>MONTH: 1 (January) to 12 (December)</li>
+ *   <li>YEAR: the year</li>
+ *   <li>WEEK_OF_YEAR: 1 to 53, weeks starting on Sunday like in Locale.US</li>
+ * </ul>
+ * Buckets sort like the normalized dates. Instances are immutable and thread-safe.
+ */
+public final class DateBuckets {
+
+  private static final long MILLIS_PER_DAY = 86_400_000L;
+
+  /**
+   * Days from 0000-03-01 to 1970-01-01.
+   */
+  private static final long DAYS_0000_TO_1970 = 719_468L;
+
+  private static final long DAYS_PER_400_YEARS = 146_097L;
+
+  private static final String[] DAY_NAMES = {
+      "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"
+  };
+
+  private static final String[] MONTH_NAMES = {
+      "January", "February", "March", "April", "May", "June",
+      "July", "August", "September", "October", "November", "December"
+  };
+
+  private static final String[] WEEK_NAMES = new String[53];
+
+  static {
+    for (int week = 1; week <= WEEK_NAMES.length; week++)
+      WEEK_NAMES[week - 1] = Integer.toString(week);
+  }
+
+  private final TimeSteps steps;
+
+  private final TimeZone zone;
+
+  private DateBuckets(TimeSteps steps, TimeZone zone) {
+    this.steps = steps;
+    this.zone = zone;
+  }
+
+  /**
+   * Buckets of a timestep in the default time zone, like the {@link DateNormalizer}.
+   *
+   * @param steps timestep of buckets
+   * @return buckets
+   */
+  public static DateBuckets of(TimeSteps steps) {
+    return of(steps, TimeZone.getDefault());
+  }
+
+  /**
+   * Buckets of a timestep in a given time zone.
+   *
+   * @param steps timestep of buckets
+   * @param zone  to take days from
+   * @return buckets
+   */
+  public static DateBuckets of(TimeSteps steps, TimeZone zone) {
+    if (steps == null)
+      throw new IllegalArgumentException("Timestep should not be null!");
+
+    return new DateBuckets(steps, (TimeZone) zone.clone());
+  }
+
+  public TimeSteps getSteps() {
+    return steps;
+  }
+
+  /**
+   * Bucket of a point in time.
+   *
+   * @param epochMillis milliseconds since epoch, like {@link Date#getTime()}
+   * @return bucket
+   */
+  public int bucketOf(long epochMillis) {
+    return bucketOfDay(epochDayOf(epochMillis));
+  }
+
+  /**
+   * Bucket of a date.
+   *
+   * @param date to get bucket of
+   * @return bucket
+   */
+  public int bucketOf(Date date) {
+    return bucketOf(date.getTime());
+  }
+
+  /**
+   * Local day of a point in time.
+   *
+   * @param epochMillis milliseconds since epoch
+   * @return days since 1970-01-01 in the time zone of these buckets
+   */
+  public long epochDayOf(long epochMillis) {
+    return Math.floorDiv(epochMillis + zone.getOffset(epochMillis), MILLIS_PER_DAY);
+  }
+
+  /**
+   * Noon of a local day, so the inverse of {@link #epochDayOf(long)}.
+   *
+   * @param epochDay days since 1970-01-01
+   * @return milliseconds since epoch
+   */
+  public long middayOf(long epochDay) {
+    long localNoon = epochDay * MILLIS_PER_DAY + MILLIS_PER_DAY / 2;
+    return localNoon - zone.getOffset(localNoon - zone.getRawOffset());
+  }
+
+  /**
+   * Bucket of a local day.
+   *
+   * @param epochDay days since 1970-01-01
+   * @return bucket
+   */
+  public int bucketOfDay(long epochDay) {
+    switch (steps) {
+      case DAY_OF_WEEK:
+        //1970-01-01 was a Thursday
+        return (int) Math.floorMod(epochDay + 3, 7L) + 1;
+      case MONTH:
+        return monthOf(epochDay);
+      case YEAR:
+        return yearOf(epochDay);
+      case WEEK_OF_YEAR:
+        return weekOf(epochDay);
+      default:
+        throw new AssertionError("Unknown timestep " + steps);
+    }
+  }
+
+  /**
+   * All buckets touched by a range of dates.
+   *
+   * @param from start of range (included)
+   * @param to   end of range (excluded)
+   * @return sorted distinct buckets
+   */
+  public int[] bucketsBetween(Date from, Date to) {
+    long firstDay = epochDayOf(from.getTime());
+    long lastDay = epochDayOf(to.getTime() - 1);
+
+    if (lastDay < firstDay)
+      return new int[0];
+
+    int[] buckets = new int[16];
+    int size = 0;
+    int last = Integer.MIN_VALUE;
+
+    for (long day = firstDay; day <= lastDay; day++) {
+      int bucket = bucketOfDay(day);
+
+      //Consecutive days mostly share a bucket
+      if (bucket == last)
+        continue;
+      last = bucket;
+
+      if (size == buckets.length)
+        buckets = Arrays.copyOf(buckets, size * 2);
+      buckets[size++] = bucket;
+    }
+
+    buckets = Arrays.copyOf(buckets, size);
+    Arrays.sort(buckets);
+
+    //Remove duplicates
+    int distinct = 0;
+    for (int i = 0; i < buckets.length; i++)
+      if (i == 0 || buckets[i] != buckets[i - 1])
+        buckets[distinct++] = buckets[i];
+
+    return Arrays.copyOf(buckets, distinct);
+  }
+
+  /**
+   * String representation of a bucket, equal to {@link DateNormalizer#format(Date)}.
+   *
+   * @param bucket to format
+   * @return formatted bucket
+   */
+  public String format(int bucket) {
+    switch (steps) {
+      case DAY_OF_WEEK:
+        return DAY_NAMES[bucket - 1];
+      case MONTH:
+        return MONTH_NAMES[bucket - 1];
+      case WEEK_OF_YEAR:
+        return WEEK_NAMES[bucket - 1];
+      default:
+        return Integer.toString(bucket);
+    }
+  }
+
+  /**
+   * Year of a day. See http://howardhinnant.github.io/date_algorithms.html
+   */
+  static int yearOf(long epochDay) {
+    long z = epochDay + DAYS_0000_TO_1970;
+    long era = Math.floorDiv(z, DAYS_PER_400_YEARS);
+    long dayOfEra = z - era * DAYS_PER_400_YEARS;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+
+    //Years start on 1st of March here, so January and February belong to the next year
+    long year = yearOfEra + era * 400;
+    return (int) (dayOfYear >= 306 ? year + 1 : year);
+  }
+
+  /**
+   * Month of a day. See http://howardhinnant.github.io/date_algorithms.html
+   */
+  static int monthOf(long epochDay) {
+    long z = epochDay + DAYS_0000_TO_1970;
+    long era = Math.floorDiv(z, DAYS_PER_400_YEARS);
+    long dayOfEra = z - era * DAYS_PER_400_YEARS;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long shiftedMonth = (5 * dayOfYear + 2) / 153;
+
+    return (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+  }
+
+  /**
+   * First day of a year.
+   */
+  static long firstDayOfYear(int year) {
+    //1st of January is day 306 of the previous year starting in March
+    long y = year - 1L;
+    long era = Math.floorDiv(y, 400L);
+    long yearOfEra = y - era * 400;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + 306;
+    return era * DAYS_PER_400_YEARS + dayOfEra - DAYS_0000_TO_1970;
+  }
+
+  /**
+   * Week of year with weeks starting on Sunday and week 1 containing the 1st of January.
+   */
+  static int weekOf(long epochDay) {
+    int year = yearOf(epochDay);
+
+    //Last days of December belong to week 1, if they share the week with the next 1st of January
+    long nextYear = firstDayOfYear(year + 1);
+    if (epochDay >= nextYear - daysSinceSunday(nextYear))
+      return 1;
+
+    long firstWeek = firstDayOfYear(year);
+    firstWeek -= daysSinceSunday(firstWeek);
+
+    return (int) ((epochDay - firstWeek) / 7) + 1;
+  }
+
+  private static long daysSinceSunday(long epochDay) {
+    return Math.floorMod(epochDay + 4, 7L);
+  }
+}
@@ -18,12 +18,15 @@ import java.util.Locale;
  *
  *
  * Normalizes given dates to a given timestep, so they compared to each other.
+ *
+ * Thread-safe. Every thread formats with its own SimpleDateFormat,
+ * so one normalizer may be shared by parallel tasks.
  */
 public class DateNormalizer {
 
   private final TimeSteps steps;
 
-  private SimpleDateFormat formatter;
+  private final ThreadLocal<SimpleDateFormat> formatter;
 
   private static final Date MONDAY;
   private static final Date TUESDAY;
@@ -60,7 +63,7 @@ public class DateNormalizer {
   public DateNormalizer(TimeSteps steps) {
     this.steps = steps;
 
-    formatter = getDateTimeFormatter(steps);
+    formatter = ThreadLocal.withInitial(() -> getDateTimeFormatter(steps));
   }
 
   /**
@@ -70,6 +73,8 @@ public class DateNormalizer {
    */
   public Date normalizeDate(Date date) {
 
+    SimpleDateFormat formatter = this.formatter.get();
+
     if(steps != TimeSteps.DAY_OF_WEEK) {
       try {
         return formatter.parse(formatter.format(date));
@@ -100,16 +105,16 @@ public class DateNormalizer {
    */
   public String format(Date date){
     //format and remove leading zeros e.g. week 01 to 1
-    return formatter.format(date).replaceFirst("^0+(?!$)", "");
+    return formatter.get().format(date).replaceFirst("^0+(?!$)", "");
   }
 
   public Date parse (String date) throws ParseException{
     //Format Week to correct format
     if(steps == TimeSteps.WEEK_OF_YEAR && date.length() == 1){
-      return normalizeDate(formatter.parse("0" + date));
+      return normalizeDate(formatter.get().parse("0" + date));
     }
 
-    return normalizeDate(formatter.parse(date));
+    return normalizeDate(formatter.get().parse(date));
   }
 
   private SimpleDateFormat getDateTimeFormatter(TimeSteps timeStep) {
@@ -0,0 +1,52 @@
+package de.orfap.fap.backend.controller;
+
+import org.springframework.http.HttpHeaders;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.controller
+ * Author(s): Rene Zarwel
+ * Date: 04.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Conditional requests by entity tags of {@link de.orfap.fap.backend.service.DataVersion}.
+ */
+final class ETags {
+
+  private ETags() {
+  }
+
+  /**
+   * The representation of a result depends on the negotiated type and encoding.
+   *
+   * @param request to answer
+   * @return variant of the response to the request
+   */
+  static String variantOf(HttpServletRequest request) {
+    return request.getHeader(HttpHeaders.ACCEPT) + ";" + request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+  }
+
+  /**
+   * Compares strongly, so weak tags of the client never match.
+   *
+   * @param request with If-None-Match header
+   * @param etag    quoted entity tag of the current result
+   * @return true if the client has the current result
+   */
+  static boolean isNotModified(HttpServletRequest request, String etag) {
+    String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+    if (ifNoneMatch == null)
+      return false;
+
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.equals("*") || tag.equals(etag))
+        return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,223 @@
+package de.orfap.fap.backend.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.orfap.fap.backend.domain.FilterKey;
+import de.orfap.fap.backend.service.RouteCacheEvictor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.controller
+ * Author(s): Rene Zarwel
+ * Date: 05.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Cache of encoded filter responses, so a hit is written without serialization.
+ *
+ * Entries are kept per normalized setting, negotiated type and gzip and hold the data version
+ * they were encoded of. Entries of an older version are encoded again.
+ * Responses are gzipped like the server compression does, so the server leaves them untouched.
+ */
+@Component
+public class EncodedFilterResponses {
+
+  private static final MediaType JSON = MediaType.parseMediaType("application/json;charset=UTF-8");
+
+  @Autowired
+  CacheManager cacheManager;
+
+  @Autowired
+  ObjectMapper objectMapper;
+
+  @Value("${server.compression.enabled:false}")
+  boolean compression;
+
+  @Value("${server.compression.min-response-size:2048}")
+  int minCompressionSize;
+
+  /**
+   * Responds with the encoded response of a setting.
+   *
+   * @param key     of the setting
+   * @param version of the routes of the setting
+   * @param etag    of the response
+   * @param request with Accept and Accept-Encoding headers
+   * @param filter  computes the response on a miss
+   * @return encoded response or null if the request accepts no type encoded here
+   */
+  public ResponseEntity<byte[]> respond(
+      FilterKey key, long version, String etag, HttpServletRequest request, Supplier<FilterResponse> filter) {
+
+    MediaType type = negotiate(request);
+    if (type == null)
+      return null;
+
+    Key cacheKey = new Key(key, type.toString(), compression && acceptsGzip(request));
+    Cache cache = cacheManager.getCache(RouteCacheEvictor.FILTER_BYTES);
+
+    Entry entry = cache == null ? null : cache.get(cacheKey, Entry.class);
+    if (entry == null || entry.getVersion() != version) {
+      entry = encode(filter.get(), cacheKey, version);
+      if (cache != null)
+        cache.put(cacheKey, entry);
+    }
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.parseMediaType(entry.getContentType()));
+    headers.setContentLength(entry.getBody().length);
+    headers.setETag(etag);
+    headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+    if (entry.isGzip())
+      headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+
+    return new ResponseEntity<>(entry.getBody(), headers, HttpStatus.OK);
+  }
+
+  /**
+   * Same choice as the message converters: JSON comes first, so it is taken for wildcards.
+   *
+   * @return type to encode or null if none is acceptable
+   */
+  private static MediaType negotiate(HttpServletRequest request) {
+    String accept = request.getHeader(HttpHeaders.ACCEPT);
+    if (accept == null || accept.trim().isEmpty())
+      return JSON;
+
+    List<MediaType> accepted;
+    try {
+      accepted = MediaType.parseMediaTypes(accept);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    MediaType.sortBySpecificityAndQuality(accepted);
+
+    for (MediaType type : accepted) {
+      if (type.getQualityValue() == 0)
+        continue;
+      if (type.includes(MediaType.APPLICATION_JSON))
+        return JSON;
+      if (type.includes(FilterResponseConverter.MEDIA_TYPE))
+        return FilterResponseConverter.MEDIA_TYPE;
+    }
+    return null;
+  }
+
+  /**
+   * Gzip is accepted if it is listed or matched by * with a quality above 0.
+   * A listed gzip overrules *.
+   */
+  private static boolean acceptsGzip(HttpServletRequest request) {
+    Double gzip = null;
+    Double any = null;
+
+    for (String header : Collections.list(request.getHeaders(HttpHeaders.ACCEPT_ENCODING))) {
+      for (String coding : header.split(",")) {
+        String[] parameters = coding.split(";");
+        String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+        if (name.equals("gzip") || name.equals("x-gzip"))
+          gzip = Math.max(gzip == null ? 0 : gzip, qualityOf(parameters));
+        else if (name.equals("*"))
+          any = qualityOf(parameters);
+      }
+    }
+
+    return gzip != null ? gzip > 0 : any != null && any > 0;
+  }
+
+  /**
+   * @param parameters of a coding, the coding first
+   * @return q of the coding, 1 if not given and 0 if invalid
+   */
+  private static double qualityOf(String[] parameters) {
+    for (int i = 1; i < parameters.length; i++) {
+      String parameter = parameters[i].trim();
+      if (!parameter.toLowerCase(Locale.ROOT).startsWith("q="))
+        continue;
+      try {
+        return Double.parseDouble(parameter.substring(2).trim());
+      } catch (NumberFormatException e) {
+        return 0;
+      }
+    }
+    return 1;
+  }
+
+  private Entry encode(FilterResponse response, Key key, long version) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      if (key.getContentType().equals(FilterResponseConverter.MEDIA_TYPE_VALUE))
+        FilterResponseConverter.write(response, out);
+      else
+        objectMapper.writeValue(out, response);
+
+      byte[] body = out.toByteArray();
+      boolean gzip = key.isGzip() && body.length >= minCompressionSize;
+      if (gzip) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream zip = new GZIPOutputStream(compressed)) {
+          zip.write(body);
+        }
+        body = compressed.toByteArray();
+      }
+
+      return new Entry(version, key.getContentType(), gzip, body);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Cache key of an encoded response.
+   */
+  @Data
+  public static class Key {
+
+    private final FilterKey filter;
+
+    private final String contentType;
+
+    /**
+     * True if the client accepts gzip.
+     */
+    private final boolean gzip;
+  }
+
+  /**
+   * Encoded response of a data version.
+   */
+  @Data
+  public static class Entry {
+
+    private final long version;
+
+    private final String contentType;
+
+    /**
+     * True if the body is gzipped.
+     */
+    private final boolean gzip;
+
+    private final byte[] body;
+  }
+}
@@ -0,0 +1,299 @@
+package de.orfap.fap.backend.controller;
+
+import de.orfap.fap.backend.domain.DelayHistogram;
+import de.orfap.fap.backend.domain.QualitiativeValue;
+import de.orfap.fap.backend.domain.QuantitiveValue;
+import de.orfap.fap.backend.domain.RouteAggregate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.controller
+ * Author(s): Rene Zarwel
+ * Date: 30.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Sums up aggregates in a single pass by series and bucket.
+ *
+ * Every cell of series index and bucket index holds four double sums and two long counts
+ * in flat primitive arrays, so adding an aggregate neither allocates nor boxes.
+ * Delay histograms of aggregates are merged per cell, only cells with a histogram hold one.
+ * Series are indexed in order of their first aggregate.
+ */
+public final class FilterAccumulator {
+
+  /**
+   * Indices of the sums of {@link #toSums()}.
+   */
+  public static final int FLIGHTS = 0;
+  public static final int PASSENGERS = 1;
+  public static final int CANCELLED = 2;
+  public static final int DELAYS = 3;
+  public static final int DELAYED = 4;
+  public static final int ROUTES = 5;
+  public static final int SUMS = 6;
+
+  /** Double sums of a cell. */
+  private static final int VALUES = 4;
+
+  /** Long counts of a cell, delayed and routes. */
+  private static final int COUNTS = 2;
+
+  private final DateBuckets buckets;
+  private final int[] keys;
+
+  private final Map<String, Integer> seriesIndices = new HashMap<>();
+  private final List<String> seriesNames = new ArrayList<>();
+
+  private int firstBucket;
+  private int bucketCount;
+  private int seriesCapacity;
+
+  private double[] values;
+  private long[] counts;
+
+  /** Buckets with an aggregate of any series. */
+  private boolean[] touched;
+
+  /** Merged delay histogram per cell, null until an aggregate has one. */
+  private DelayHistogram[] histograms;
+
+  /**
+   * @param buckets to map dates to.
+   * @param keys    all possible buckets of each series, sorted.
+   */
+  public FilterAccumulator(DateBuckets buckets, int[] keys) {
+    this.buckets = buckets;
+    this.keys = keys;
+
+    firstBucket = keys.length == 0 ? 0 : keys[0];
+    bucketCount = keys.length == 0 ? 0 : keys[keys.length - 1] - keys[0] + 1;
+    seriesCapacity = 4;
+    values = new double[seriesCapacity * bucketCount * VALUES];
+    counts = new long[seriesCapacity * bucketCount * COUNTS];
+    touched = new boolean[bucketCount];
+  }
+
+  /**
+   * Adds all aggregates.
+   *
+   * @param aggregates to sum up.
+   * @return this accumulator
+   */
+  public FilterAccumulator addAll(List<RouteAggregate> aggregates) {
+    for (RouteAggregate aggregate : aggregates)
+      add(aggregate);
+    return this;
+  }
+
+  /**
+   * Adds an aggregate to the cell of its series and bucket.
+   *
+   * @param aggregate to sum up.
+   */
+  public void add(RouteAggregate aggregate) {
+    int bucket = buckets.bucketOf(aggregate.getDate());
+    if (bucket < firstBucket || bucket >= firstBucket + bucketCount)
+      growBuckets(bucket);
+
+    int cell = indexOf(aggregate.getSeries()) * bucketCount + bucket - firstBucket;
+
+    values[cell * VALUES + FLIGHTS] += aggregate.getFlightCount();
+    values[cell * VALUES + PASSENGERS] += aggregate.getPassengerCount();
+    values[cell * VALUES + CANCELLED] += aggregate.getCancelled();
+    values[cell * VALUES + DELAYS] += aggregate.getDelays();
+    counts[cell * COUNTS] += aggregate.getDelayedCount();
+    counts[cell * COUNTS + 1] += aggregate.getRouteCount();
+    touched[bucket - firstBucket] = true;
+
+    if (aggregate.getDelayHistogram() != null) {
+      if (histograms == null)
+        histograms = new DelayHistogram[seriesCapacity * bucketCount];
+      if (histograms[cell] == null)
+        histograms[cell] = new DelayHistogram();
+      histograms[cell].merge(aggregate.getDelayHistogram());
+    }
+  }
+
+  /**
+   * Builds the response of the filter.
+   *
+   * TIME has a single value per bucket of the unnamed series. Other axes have
+   * one value per bucket of any series for every series, formatted in x.
+   *
+   * @param quant value to compute of each cell.
+   * @param axis  of the series.
+   * @return response of the filter
+   */
+  public FilterResponse toResponse(QuantitiveValue quant, QualitiativeValue axis) {
+    Map<String, List<Double>> data;
+    List<String> x = new ArrayList<>();
+
+    switch (axis) {
+      case TIME:
+        Integer series = seriesIndices.get("");
+
+        //All keys and all buckets of the series
+        data = new LinkedHashMap<>();
+        for (int bucket = 0; bucket < bucketCount; bucket++)
+          if (isKey(bucket) || series != null && routesOf(series * bucketCount + bucket) > 0)
+            data.put(buckets.format(firstBucket + bucket),
+                Collections.singletonList(series == null ? 0.0 : valueOf(quant, series * bucketCount + bucket)));
+        break;
+
+      case DESTINATION:
+      case AIRLINE:
+        //Buckets of all series, so every series has the same length
+        int[] columns = new int[bucketCount];
+        int columnCount = 0;
+        for (int bucket = 0; bucket < bucketCount; bucket++)
+          if (isKey(bucket) || touched[bucket]) {
+            columns[columnCount++] = bucket;
+            x.add(buckets.format(firstBucket + bucket));
+          }
+
+        data = new TreeMap<>();
+        for (int index = 0; index < seriesNames.size(); index++) {
+          List<Double> row = new ArrayList<>(columnCount);
+          for (int column = 0; column < columnCount; column++)
+            row.add(valueOf(quant, index * bucketCount + columns[column]));
+          data.put(seriesNames.get(index), row);
+        }
+        break;
+
+      default:
+        throw new IllegalArgumentException("Unknown axis: " + axis);
+    }
+
+    return FilterResponse.builder()
+        .data(data)
+        .x(x)
+        .y(quant)
+        .z(axis)
+        .build();
+  }
+
+  /**
+   * Sums by series and bucket. Every series contains all keys.
+   *
+   * @return per series the sums of each bucket, indexed by {@link #FLIGHTS} to {@link #ROUTES}.
+   */
+  public Map<String, SortedMap<Integer, double[]>> toSums() {
+    Map<String, SortedMap<Integer, double[]>> result = new TreeMap<>();
+
+    for (int index = 0; index < seriesNames.size(); index++) {
+      SortedMap<Integer, double[]> bucketSums = new TreeMap<>();
+      for (int bucket = 0; bucket < bucketCount; bucket++) {
+        int cell = index * bucketCount + bucket;
+        if (!isKey(bucket) && routesOf(cell) == 0)
+          continue;
+
+        double[] sums = new double[SUMS];
+        System.arraycopy(values, cell * VALUES, sums, 0, VALUES);
+        sums[DELAYED] = counts[cell * COUNTS];
+        sums[ROUTES] = counts[cell * COUNTS + 1];
+        bucketSums.put(firstBucket + bucket, sums);
+      }
+      result.put(seriesNames.get(index), bucketSums);
+    }
+
+    return result;
+  }
+
+  private double valueOf(QuantitiveValue quant, int cell) {
+    switch (quant) {
+
+      case FLIGHTS:
+        return values[cell * VALUES + FLIGHTS];
+      case PASSENGERS:
+        return values[cell * VALUES + PASSENGERS];
+      case DELAYFREQ:
+        return counts[cell * COUNTS];
+      case CANCELLATIONS:
+        return values[cell * VALUES + CANCELLED];
+      case AVGDELAY:
+        long routes = routesOf(cell);
+        return routes > 0 ? values[cell * VALUES + DELAYS] / routes : 0;
+      case P50DELAY:
+      case P90DELAY:
+      case P99DELAY:
+        return percentileOf(cell, quant.getPercentile());
+      default:
+        return 0;
+    }
+  }
+
+  private double percentileOf(int cell, double percentile) {
+    DelayHistogram histogram = histograms == null ? null : histograms[cell];
+    return histogram == null ? 0 : histogram.percentile(percentile);
+  }
+
+  private long routesOf(int cell) {
+    return counts[cell * COUNTS + 1];
+  }
+
+  private boolean isKey(int bucket) {
+    return Arrays.binarySearch(keys, firstBucket + bucket) >= 0;
+  }
+
+  private int indexOf(String series) {
+    Integer index = seriesIndices.get(series);
+    if (index != null)
+      return index;
+
+    index = seriesNames.size();
+    if (index == seriesCapacity) {
+      seriesCapacity *= 2;
+      values = Arrays.copyOf(values, seriesCapacity * bucketCount * VALUES);
+      counts = Arrays.copyOf(counts, seriesCapacity * bucketCount * COUNTS);
+      if (histograms != null)
+        histograms = Arrays.copyOf(histograms, seriesCapacity * bucketCount);
+    }
+
+    seriesIndices.put(series, index);
+    seriesNames.add(series);
+    return index;
+  }
+
+  /**
+   * Widens the bucket range to include a bucket outside of the keys.
+   */
+  private void growBuckets(int bucket) {
+    int first = bucketCount == 0 ? bucket : Math.min(firstBucket, bucket);
+    int count = bucketCount == 0 ? 1 : Math.max(firstBucket + bucketCount, bucket + 1) - first;
+    int shift = bucketCount == 0 ? 0 : firstBucket - first;
+
+    double[] grownValues = new double[seriesCapacity * count * VALUES];
+    long[] grownCounts = new long[seriesCapacity * count * COUNTS];
+    boolean[] grownTouched = new boolean[count];
+    DelayHistogram[] grownHistograms = histograms == null ? null : new DelayHistogram[seriesCapacity * count];
+
+    for (int series = 0; series < seriesNames.size(); series++) {
+      System.arraycopy(values, series * bucketCount * VALUES,
+          grownValues, (series * count + shift) * VALUES, bucketCount * VALUES);
+      System.arraycopy(counts, series * bucketCount * COUNTS,
+          grownCounts, (series * count + shift) * COUNTS, bucketCount * COUNTS);
+      if (histograms != null)
+        System.arraycopy(histograms, series * bucketCount, grownHistograms, series * count + shift, bucketCount);
+    }
+    System.arraycopy(touched, 0, grownTouched, shift, bucketCount);
+
+    firstBucket = first;
+    bucketCount = count;
+    values = grownValues;
+    counts = grownCounts;
+    touched = grownTouched;
+    histograms = grownHistograms;
+  }
+}
@@ -0,0 +1,148 @@
+package de.orfap.fap.backend.controller;
+
+import de.orfap.fap.backend.domain.QualitiativeValue;
+import de.orfap.fap.backend.domain.QuantitiveValue;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.controller
+ * Author(s): Rene Zarwel
+ * Date: 01.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Compact binary representation of a {@link FilterResponse}, requested with Accept: {@value #MEDIA_TYPE_VALUE}.
+ *
+ * Layout in big endian: magic "FAPF", version byte, y and z as UTF, count and UTF of every x,
+ * count of series and per series its name as UTF, count of values, value width and values.
+ * Series whose values all fit exactly into float32 are written with width 4, others as float64 with width 8,
+ * so decoding always gives the same response.
+ */
+public class FilterResponseConverter extends AbstractHttpMessageConverter<FilterResponse> {
+
+  public static final String MEDIA_TYPE_VALUE = "application/x-fap-filter";
+
+  public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(MEDIA_TYPE_VALUE);
+
+  private static final int MAGIC = 0x46415046;
+
+  private static final byte VERSION = 1;
+
+  public FilterResponseConverter() {
+    super(MEDIA_TYPE);
+  }
+
+  @Override
+  protected boolean supports(Class<?> clazz) {
+    return FilterResponse.class.isAssignableFrom(clazz);
+  }
+
+  @Override
+  protected FilterResponse readInternal(Class<? extends FilterResponse> clazz, HttpInputMessage inputMessage)
+      throws IOException {
+
+    DataInputStream in = new DataInputStream(inputMessage.getBody());
+
+    if (in.readInt() != MAGIC || in.readByte() != VERSION)
+      throw new HttpMessageNotReadableException("Not a filter response of version " + VERSION);
+
+    String y = in.readUTF();
+    String z = in.readUTF();
+
+    int xCount = in.readInt();
+    List<String> x = new ArrayList<>(xCount);
+    for (int i = 0; i < xCount; i++)
+      x.add(in.readUTF());
+
+    int seriesCount = in.readInt();
+    Map<String, List<Double>> data = new LinkedHashMap<>();
+    for (int i = 0; i < seriesCount; i++) {
+      String name = in.readUTF();
+      int length = in.readInt();
+      boolean floats = in.readByte() == Float.BYTES;
+
+      List<Double> values = new ArrayList<>(length);
+      for (int j = 0; j < length; j++)
+        values.add(floats ? (double) in.readFloat() : in.readDouble());
+      data.put(name, values);
+    }
+
+    return FilterResponse.builder()
+        .y(y.isEmpty() ? null : QuantitiveValue.valueOf(y))
+        .z(z.isEmpty() ? null : QualitiativeValue.valueOf(z))
+        .x(x)
+        .data(data)
+        .build();
+  }
+
+  @Override
+  protected void writeInternal(FilterResponse response, HttpOutputMessage outputMessage) throws IOException {
+    write(response, outputMessage.getBody());
+  }
+
+  /**
+   * Writes a response in the binary layout.
+   *
+   * @param response to write
+   * @param body     to write to, flushed but not closed
+   * @throws IOException if body could not be written
+   */
+  public static void write(FilterResponse response, OutputStream body) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(body));
+
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.writeUTF(response.getY() == null ? "" : response.getY().name());
+    out.writeUTF(response.getZ() == null ? "" : response.getZ().name());
+
+    List<String> x = response.getX() == null ? new ArrayList<>() : response.getX();
+    out.writeInt(x.size());
+    for (String label : x)
+      out.writeUTF(label);
+
+    Map<String, List<Double>> data = response.getData() == null ? new LinkedHashMap<>() : response.getData();
+    out.writeInt(data.size());
+    for (Map.Entry<String, List<Double>> entry : data.entrySet()) {
+      List<Double> values = entry.getValue();
+      boolean floats = fitFloats(values);
+
+      out.writeUTF(entry.getKey());
+      out.writeInt(values.size());
+      out.writeByte(floats ? Float.BYTES : Double.BYTES);
+      for (Double value : values) {
+        if (floats)
+          out.writeFloat(value.floatValue());
+        else
+          out.writeDouble(value);
+      }
+    }
+
+    out.flush();
+  }
+
+  /**
+   * @return true if all values are exactly representable as float
+   */
+  private static boolean fitFloats(List<Double> values) {
+    for (Double value : values)
+      if ((double) value.floatValue() != value)
+        return false;
+    return true;
+  }
+}
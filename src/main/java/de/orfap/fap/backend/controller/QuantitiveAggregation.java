@@ -0,0 +1,196 @@
+package de.orfap.fap.backend.controller;
+
+import de.orfap.fap.backend.domain.DelayHistogram;
+import de.orfap.fap.backend.domain.QuantitiveValue;
+import de.orfap.fap.backend.domain.Route;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.controller
+ * Author(s): Rene Zarwel
+ * Date: 29.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Maps routes of each key by time to a quantitive value, see {@link RouteController#mapToQuantitive}.
+ *
+ * The routes of every key are split into chunks of at most {@link #CHUNK_SIZE} routes.
+ * Each chunk sums up into its own statistics per date, which are combined left to right.
+ * In parallel the keys and chunks run as fork-join tasks. Both modes build the same
+ * tree of chunks, so their results are identical. Averages are combined by sum and count,
+ * percentiles by merging delay histograms.
+ */
+final class QuantitiveAggregation {
+
+  /**
+   * Maximum routes summed up by one task.
+   */
+  static final int CHUNK_SIZE = 4096;
+
+  private final DateNormalizer dateNormalizer;
+  private final QuantitiveValue quant;
+  private final ToDoubleFunction<Route> value;
+  private final boolean parallel;
+
+  /**
+   * @param dateNormalizer to normalize dates.
+   * @param quant          Quantitive Value to map.
+   * @param value          of a route.
+   * @param parallel       true to fork tasks.
+   */
+  QuantitiveAggregation(
+      DateNormalizer dateNormalizer, QuantitiveValue quant, ToDoubleFunction<Route> value, boolean parallel) {
+    this.dateNormalizer = dateNormalizer;
+    this.quant = quant;
+    this.value = value;
+    this.parallel = parallel;
+  }
+
+  /**
+   * Maps a given route map by time.
+   *
+   * @param keys     all possible keys of map.
+   * @param routeMap data to map on.
+   * @param pool     to run tasks in, if parallel.
+   * @return one value per date key, sorted by date.
+   */
+  Map<String, List<Double>> map(Set<Date> keys, Map<String, List<Route>> routeMap, ForkJoinPool pool) {
+    List<String> names = new ArrayList<>(routeMap.keySet());
+    List<ChunkTask> tasks = new ArrayList<>(names.size());
+    names.forEach(name -> tasks.add(new ChunkTask(routeMap.get(name), 0, routeMap.get(name).size())));
+
+    if (parallel)
+      pool.invoke(new KeysTask(tasks));
+    else
+      tasks.forEach(ChunkTask::compute);
+
+    Map<String, List<Double>> result = new TreeMap<>();
+    for (int i = 0; i < names.size(); i++)
+      result.put(names.get(i), toValues(keys, tasks.get(i).getRawResult()));
+
+    return result;
+  }
+
+  private List<Double> toValues(Set<Date> keys, Map<Date, Statistics> statistics) {
+    //Insert missing keys
+    keys.forEach(keyValue -> statistics.putIfAbsent(keyValue, new Statistics()));
+
+    //Strip to one value
+    List<Double> values = new ArrayList<>(statistics.size());
+    new TreeMap<>(statistics).values().forEach(statistic -> values.add(statistic.value()));
+    return values;
+  }
+
+  /**
+   * Sum and count of values, with a histogram of them for percentiles.
+   */
+  private final class Statistics extends DoubleSummaryStatistics {
+
+    private final DelayHistogram histogram = quant.isPercentile() ? new DelayHistogram() : null;
+
+    @Override
+    public void accept(double value) {
+      super.accept(value);
+      if (histogram != null)
+        histogram.record(value);
+    }
+
+    void combine(Statistics other) {
+      super.combine(other);
+      if (histogram != null)
+        histogram.merge(other.histogram);
+    }
+
+    double value() {
+      if (quant.isPercentile())
+        return histogram.percentile(quant.getPercentile());
+      return quant == QuantitiveValue.AVGDELAY ? getAverage() : getSum();
+    }
+  }
+
+  /**
+   * Forks the tasks of all keys.
+   */
+  private static final class KeysTask extends RecursiveTask<Void> {
+
+    private final List<ChunkTask> tasks;
+
+    KeysTask(List<ChunkTask> tasks) {
+      this.tasks = tasks;
+    }
+
+    @Override
+    protected Void compute() {
+      invokeAll(tasks);
+      return null;
+    }
+  }
+
+  /**
+   * Sums up a range of routes of one key by normalized date.
+   */
+  private final class ChunkTask extends RecursiveTask<Map<Date, Statistics>> {
+
+    private final List<Route> routes;
+    private final int from;
+    private final int to;
+
+    ChunkTask(List<Route> routes, int from, int to) {
+      this.routes = routes;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Map<Date, Statistics> compute() {
+      if (to - from <= CHUNK_SIZE)
+        return sum();
+
+      int middle = from + (to - from) / 2;
+      ChunkTask left = new ChunkTask(routes, from, middle);
+      ChunkTask right = new ChunkTask(routes, middle, to);
+
+      Map<Date, Statistics> leftResult;
+      Map<Date, Statistics> rightResult;
+      if (parallel) {
+        left.fork();
+        rightResult = right.compute();
+        leftResult = left.join();
+      } else {
+        leftResult = left.compute();
+        rightResult = right.compute();
+      }
+
+      //Combine left to right, so the order of sums never depends on threads
+      rightResult.forEach((date, statistic) ->
+          leftResult.computeIfAbsent(date, key -> new Statistics()).combine(statistic));
+      setRawResult(leftResult);
+      return leftResult;
+    }
+
+    private Map<Date, Statistics> sum() {
+      //Routes keep their dates, the normalized date is only the key
+      Map<Date, Statistics> statistics = new HashMap<>();
+      for (int i = from; i < to; i++) {
+        Route route = routes.get(i);
+        Date date = dateNormalizer.normalizeDate(route.getDate());
+        statistics.computeIfAbsent(date, key -> new Statistics()).accept(value.applyAsDouble(route));
+      }
+      setRawResult(statistics);
+      return statistics;
+    }
+  }
+}
@@ -1,39 +1,56 @@
 package de.orfap.fap.backend.controller;
 
-import de.orfap.fap.backend.domain.Airline;
-import de.orfap.fap.backend.domain.Market;
+import de.orfap.fap.backend.domain.DelayHistogram;
+import de.orfap.fap.backend.domain.FilterKey;
 import de.orfap.fap.backend.domain.QuantitiveValue;
 import de.orfap.fap.backend.domain.Route;
 import de.orfap.fap.backend.domain.Setting;
 import de.orfap.fap.backend.domain.TimeSteps;
-import de.orfap.fap.backend.repositories.AirlineRepository;
-import de.orfap.fap.backend.repositories.MarketRepository;
 import de.orfap.fap.backend.repositories.RouteRepository;
+import de.orfap.fap.backend.service.CsvColumns;
+import de.orfap.fap.backend.service.CsvRouteImporter;
+import de.orfap.fap.backend.service.DataVersion;
+import de.orfap.fap.backend.service.FilterCacheWarmer;
+import de.orfap.fap.backend.service.FilterJobService;
+import de.orfap.fap.backend.service.FilterJobStatus;
+import de.orfap.fap.backend.service.IngestionMode;
+import de.orfap.fap.backend.service.IngestionResult;
+import de.orfap.fap.backend.service.MonthCoverageIndex;
+import de.orfap.fap.backend.service.RouteCacheEvictor;
+import de.orfap.fap.backend.service.RouteExportService;
+import de.orfap.fap.backend.service.RouteFilterService;
+import de.orfap.fap.backend.service.RouteIngestionService;
 import lombok.NonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.hateoas.ExposesResourceFor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.validation.BeanPropertyBindingResult;
-import org.springframework.validation.BindingResult;
-import org.springframework.validation.ObjectError;
-import org.springframework.validation.Validator;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
-import java.util.stream.DoubleStream;
 
 /**
  * Organization: HM FK07.
@@ -53,81 +70,124 @@ public class RouteController {
 
   public static final Logger LOG = LoggerFactory.getLogger(RouteController.class);
 
+  /**
+   * Maximum routes per page.
+   */
+  public static final int MAX_PAGE_SIZE = 10000;
+
+  /**
+   * Lowest oid, so a cursor with it starts before all routes of its date.
+   */
+  private static final UUID FIRST_OID = new UUID(0, 0);
+
+  /**
+   * Maximum years of a month coverage request.
+   */
+  public static final int MAX_COVERAGE_YEARS = 100;
+
+  /**
+   * Maximum seconds to wait for a filter job.
+   */
+  public static final int MAX_JOB_WAIT = 30;
+
 
   @Autowired
   RouteRepository routeRepository;
 
   @Autowired
-  AirlineRepository airlineRepository;
+  RouteFilterService routeFilterService;
+
+  @Autowired
+  FilterJobService filterJobService;
+
+  @Autowired
+  FilterCacheWarmer filterCacheWarmer;
 
   @Autowired
-  MarketRepository marketRepository;
+  DataVersion dataVersion;
 
   @Autowired
-  Validator validator;
+  EncodedFilterResponses encodedFilterResponses;
+
+  @Autowired
+  RouteIngestionService routeIngestionService;
+
+  @Autowired
+  CsvRouteImporter csvRouteImporter;
+
+  @Autowired
+  RouteExportService routeExportService;
+
+  @Autowired
+  MonthCoverageIndex monthCoverageIndex;
 
   /**
    * Saves a list of routes at once.
    *
    * @param routes list of routes to save.
-   * @return saved routes.
+   * @param mode   UPSERT to replace routes with the same date, airline, source and destination.
+   * @return number of accepted and rejected routes.
+   * @deprecated binds all routes into memory. Use {@link #ingest} instead.
    */
-  @Async
+  @Deprecated
   @RequestMapping(value = "saveAll", method = RequestMethod.POST)
-  @CacheEvict(value = {"yearRoutes", "filter"}, allEntries = true)
-  public void saveAll(@RequestBody List<RouteRequest> routes, BindingResult bindingResult) {
+  public IngestionResult saveAll(
+      @RequestBody List<RouteRequest> routes,
+      @RequestParam(value = "mode", defaultValue = "INSERT") IngestionMode mode) {
 
-    List<Route> routeList = null;
+    IngestionResult result = routeIngestionService.ingest(routes, mode);
 
-    try {
-      routeList = routes.stream().map(routeRequest -> {
-
-        Airline airline = airlineRepository.findOne(routeRequest.getAirline());
-        Market source = marketRepository.findOne(routeRequest.getSource());
-        Market destination = marketRepository.findOne(routeRequest.getDestination());
-
-        if(airline == null || source == null || destination == null){
-          StringBuilder sb = new StringBuilder("Cant find: ");
-
-          if(airline == null)
-            sb.append("\nAirline with ID: ").append(routeRequest.getAirline());
-          if(source == null)
-            sb.append("\nMarket with ID: ").append(routeRequest.getSource());
-          if(destination == null)
-            sb.append("\nMarket with ID: ").append(routeRequest.getDestination());
-
-          throw new IllegalArgumentException(sb.toString());
-        }
-
-        return new Route(
-            routeRequest.getDate(),
-            routeRequest.getDelays(),
-            routeRequest.getCancelled(),
-            routeRequest.getPassengerCount(),
-            routeRequest.getFlightCount(),
-            airline,
-            source,
-            destination
-        );
-
-      })
-          .peek(route -> {
-            BeanPropertyBindingResult errors = new BeanPropertyBindingResult(route, bindingResult.getObjectName());
-            validator.validate(route, errors);
-            if (errors.hasErrors())
-              bindingResult.addAllErrors(errors);
-          })
-          .collect(Collectors.toList());
-
-    } catch (Exception exception){
-      bindingResult.addError(new ObjectError(exception.getClass().getName(), exception.getMessage()));
+    if (result.getRejected() > 0) {
+      LOG.error("Error during save: {}", result.getErrors());
     }
+    return result;
+  }
 
-    if(bindingResult.hasErrors()){
-      LOG.error("Error during save: {}", bindingResult.getAllErrors());
-    }
+  /**
+   * Saves a JSON array of routes of any size.
+   *
+   * The body is parsed while it is read and saved in chunks,
+   * so memory stays constant however big the upload is.
+   *
+   * With mode UPSERT routes with the date, airline, source and destination of a saved route
+   * replace its values, so a failed upload can be sent again.
+   *
+   * @param request with a JSON array of routes as body.
+   * @param mode    INSERT or UPSERT.
+   * @return number of accepted and rejected routes.
+   * @throws IOException if body could not be read.
+   */
+  @RequestMapping(value = "ingest", method = RequestMethod.POST)
+  public IngestionResult ingest(
+      HttpServletRequest request,
+      @RequestParam(value = "mode", defaultValue = "INSERT") IngestionMode mode) throws IOException {
+    return routeIngestionService.ingest(request.getInputStream(), mode);
+  }
+
+  /**
+   * Imports routes of a CSV file with header, e.g. of the BTS.
+   *
+   * Without file the body is imported, plain or gzipped. Columns are mapped
+   * by request parameters named like the route fields, see {@link CsvColumns}.
+   *
+   * @param file    name of a file in fap.import.directory, empty to import the body.
+   * @param columns mapping of the header to route fields.
+   * @param mode    INSERT or UPSERT, see {@link #ingest}.
+   * @param request with CSV as body.
+   * @return number of accepted and rejected routes.
+   * @throws IOException if file or body could not be read.
+   */
+  @RequestMapping(value = "importCsv", method = RequestMethod.POST)
+  public IngestionResult importCsv(
+      @RequestParam(value = "file", required = false) String file,
+      CsvColumns columns,
+      @RequestParam(value = "mode", defaultValue = "INSERT") IngestionMode mode,
+      HttpServletRequest request) throws IOException {
 
-    routeRepository.save(routeList);
+    if (file != null && !file.isEmpty())
+      return csvRouteImporter.importFile(file, columns, mode);
+
+    return csvRouteImporter.importStream(request.getInputStream(), columns, mode);
   }
 
   /**
@@ -137,7 +197,7 @@ public class RouteController {
    * @return routes of given year
    */
   @RequestMapping(value = "/search/findByYear", method = RequestMethod.GET)
-  @Cacheable("yearRoutes")
+  @Cacheable(RouteCacheEvictor.YEAR_ROUTES)
   public List<Route> findByYear(@RequestParam("year") Integer year) {
 
     if (year == null || year < 1970)
@@ -161,6 +221,71 @@ public class RouteController {
 
   }
 
+  /**
+   * Find routes by a given year page by page.
+   *
+   * Pages are ordered by date and oid. The next page starts after the cursor of the previous page,
+   * so every page is read with a single index range scan.
+   *
+   * @param year     to filter routes by
+   * @param after    date in milliseconds of the cursor, empty for the first page
+   * @param afterOid oid of the cursor, empty for the first page. Given together with after.
+   * @param size     of page, at most {@value #MAX_PAGE_SIZE}
+   * @return page of routes of given year
+   */
+  @RequestMapping(value = "/search/findByYearPaged", method = RequestMethod.GET)
+  public RoutePage findByYearPaged(
+      @RequestParam("year") Integer year,
+      @RequestParam(value = "after", required = false) Long after,
+      @RequestParam(value = "afterOid", required = false) UUID afterOid,
+      @RequestParam(value = "size", defaultValue = "1000") int size) {
+
+    checkYear(year);
+    if (size < 1 || size > MAX_PAGE_SIZE)
+      throw new IllegalArgumentException("Size should be between 1 and " + MAX_PAGE_SIZE + "!");
+    if ((after == null) != (afterOid == null))
+      throw new IllegalArgumentException("After and afterOid should be given together!");
+
+    Date start = startOfYear(year);
+    Date end = startOfYear(year + 1);
+
+    //First page starts before the first possible route
+    Date afterDate = after == null ? start : new Date(after);
+    UUID afterId = afterOid == null ? FIRST_OID : afterOid;
+
+    List<Route> routes = routeRepository.findPageAfter(start, end, afterDate, afterId, new PageRequest(0, size));
+
+    RoutePage.RoutePageBuilder page = RoutePage.builder().routes(routes);
+    if (routes.size() == size) {
+      Route last = routes.get(routes.size() - 1);
+      page.after(last.getDate().getTime()).afterOid(last.getOid());
+    }
+    return page.build();
+  }
+
+  /**
+   * Streams all routes of a given year as JSON array.
+   *
+   * Routes are written while they are read from the database,
+   * so memory stays constant however many routes a year has.
+   *
+   * @param year     to filter routes by
+   * @param response to write routes to
+   * @throws IOException if routes could not be written
+   */
+  @RequestMapping(value = "/search/streamByYear", method = RequestMethod.GET)
+  public void streamByYear(@RequestParam("year") Integer year, HttpServletResponse response) throws IOException {
+
+    checkYear(year);
+
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+    long count = routeExportService.write(startOfYear(year), startOfYear(year + 1), response.getOutputStream());
+
+    LOG.debug("Streamed {} routes of {}", count, year);
+  }
+
   /**
    * Test if there is are routes in the given month of year.
    *
@@ -173,91 +298,147 @@ public class RouteController {
     if(date == null)
       throw new IllegalArgumentException("Date should not be null.");
 
-    //Init Calendar to given date
     Calendar calendar = Calendar.getInstance(Locale.US);
     calendar.setTime(date);
 
-    //set start day to one to get whole month
-    calendar.set(Calendar.DAY_OF_MONTH, 1);
-
-    //Get Start and End of month
-    Date start = calendar.getTime();
+    return monthCoverageIndex.hasRoutes(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1);
+  }
 
-    calendar.add(Calendar.MONTH, 1);
-    Date end = calendar.getTime();
+  /**
+   * Number of routes of every month in a range of years.
+   *
+   * @param fromYear first year (included)
+   * @param toYear   last year (included)
+   * @return routes by month formatted as yyyy-MM, in order
+   */
+  @RequestMapping(value = "/search/monthCoverage", method = RequestMethod.GET)
+  public Map<String, Long> monthCoverage(
+      @RequestParam("fromYear") Integer fromYear,
+      @RequestParam("toYear") Integer toYear) {
+
+    checkYear(fromYear);
+    checkYear(toYear);
+    if (toYear < fromYear || toYear - fromYear >= MAX_COVERAGE_YEARS)
+      throw new IllegalArgumentException(
+          "Years should be in order and span at most " + MAX_COVERAGE_YEARS + " years!");
+
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (int year = fromYear; year <= toYear; year++)
+      for (int month = 1; month <= 12; month++)
+        result.put(String.format(Locale.US, "%04d-%02d", year, month), monthCoverageIndex.count(year, month));
 
-    return !routeRepository.findByDateBetween(start, end).isEmpty();
+    return result;
   }
 
   /**
    * Provides an interface to format data with given settings.
    *
+   * The response has a strong ETag of the normalized setting and the data version of its range.
+   * A request with a matching If-None-Match is answered with 304 without filtering.
+   * Responses are written from their cached encoding, see {@link EncodedFilterResponses}.
+   *
    * @param setting to format data.
-   * @return formatted data
+   * @param request with optional If-None-Match header.
+   * @return formatted data or not modified
    */
   @RequestMapping(value = "/filter", method = RequestMethod.POST)
-  @Cacheable("filter")
-  public FilterResponse filter(@RequestBody Setting setting) {
+  public ResponseEntity<?> filter(@RequestBody Setting setting, HttpServletRequest request) {
 
     LOG.info("FILTER:" + setting.toString());
 
     checkSetting(setting);
+    filterCacheWarmer.recordAccess(setting);
 
-    //Find filtered Data
-    List<Route> routes = routeRepository.findByDateBetweenAndFilteredByMarketAirline(
-        setting.getRangeFrom(),
-        setting.getRangeTo(),
-        setting.getFilter().getAirlines(),
-        setting.getFilter().getDestinations()
-    );
-
-    //SetUp Date
-    DateNormalizer dateNormalizer = new DateNormalizer(setting.getFilter().getTimestep());
-
-    //Set up keys if necessary
-    Set<Date> keys = getDateRangeKeys(
-        setting.getRangeFrom(),
-        setting.getRangeTo(),
-        setting.getFilter().getTimestep(),
-        dateNormalizer
-    );
-
-    Map<String, List<Double>> data = null;
-
-    //Compute result
-    switch (setting.getAxis().getX()) {
-      case TIME:
-        data = mapByTime(
-            dateNormalizer,
-            setting.getAxis().getY(),
-            keys,
-            routes);
-        keys = new HashSet<>();
-        break;
+    FilterKey key = FilterKey.of(setting);
+    long version = dataVersion.ofRange(setting.getRangeFrom(), setting.getRangeTo());
+    String etag = dataVersion.etagOf(key, version, ETags.variantOf(request));
 
-      case DESTINATION:
-        data = mapToQuantitive(
-            dateNormalizer,
-            setting.getAxis().getY(),
-            keys,
-            mapByDestination(routes));
-        break;
+    if (ETags.isNotModified(request, etag))
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).body(null);
 
-      case AIRLINE:
-        data = mapToQuantitive(
-            dateNormalizer,
-            setting.getAxis().getY(),
-            keys,
-            mapByAirline(routes));
-        break;
+    ResponseEntity<byte[]> encoded = encodedFilterResponses.respond(
+        key, version, etag, request, () -> routeFilterService.filter(setting));
+
+    //Types not encoded here are left to the message converters
+    return encoded != null ? encoded : ResponseEntity.ok().eTag(etag).body(routeFilterService.filter(setting));
+  }
+
+  /**
+   * Submits a setting to be formatted in the background.
+   * A setting equal to a queued or running job joins that job.
+   *
+   * @param setting to format data.
+   * @return status of the job, 503 if too many jobs are queued
+   */
+  @RequestMapping(value = "/filterJobs", method = RequestMethod.POST)
+  public ResponseEntity<FilterJobStatus> submitFilterJob(@RequestBody Setting setting) {
+
+    checkSetting(setting);
+    filterCacheWarmer.recordAccess(setting);
+
+    try {
+      FilterJobStatus status = filterJobService.submit(setting);
+      return ResponseEntity.accepted()
+          .location(URI.create("/routes/filterJobs/" + status.getId()))
+          .body(status);
+    } catch (RejectedExecutionException e) {
+      return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
     }
+  }
+
+  /**
+   * Status of a filter job. Waits for the job to finish, if wait is given.
+   *
+   * @param id   of job
+   * @param wait maximum seconds to wait, at most {@value #MAX_JOB_WAIT}
+   * @return status of the job, 404 if unknown
+   */
+  @RequestMapping(value = "/filterJobs/{id}", method = RequestMethod.GET)
+  public ResponseEntity<FilterJobStatus> getFilterJob(
+      @PathVariable("id") UUID id,
+      @RequestParam(value = "wait", defaultValue = "0") int wait) {
 
-    return FilterResponse.builder()
-        .data(data)
-        .x(keys.stream().sorted().map(dateNormalizer::format).collect(Collectors.toList()))
-        .y(setting.getAxis().getY())
-        .z(setting.getAxis().getX())
-        .build();
+    if (wait < 0 || wait > MAX_JOB_WAIT)
+      throw new IllegalArgumentException("Wait should be between 0 and " + MAX_JOB_WAIT + " seconds!");
+
+    FilterJobStatus status = filterJobService.getStatus(id, TimeUnit.SECONDS.toMillis(wait));
+    return status == null ? new ResponseEntity<>(HttpStatus.NOT_FOUND) : ResponseEntity.ok(status);
+  }
+
+  /**
+   * Formatted data of a filter job.
+   *
+   * @param id of job
+   * @return formatted data, 202 while the job is queued or running,
+   * 500 if it failed and 404 if unknown
+   */
+  @RequestMapping(value = "/filterJobs/{id}/result", method = RequestMethod.GET)
+  public ResponseEntity<FilterResponse> getFilterJobResult(@PathVariable("id") UUID id) {
+
+    FilterJobStatus status = filterJobService.getStatus(id, 0);
+    if (status == null)
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+    switch (status.getState()) {
+      case DONE:
+        return ResponseEntity.ok(filterJobService.getResult(id));
+      case FAILED:
+        return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+      default:
+        return new ResponseEntity<>(HttpStatus.ACCEPTED);
+    }
+  }
+
+  private void checkYear(Integer year) {
+    if (year == null || year < 1970)
+      throw new IllegalArgumentException("Year should not be null and greater than 1970!");
+  }
+
+  private static Date startOfYear(int year) {
+    Calendar calendar = Calendar.getInstance(Locale.US);
+    calendar.clear();
+    calendar.set(year, Calendar.JANUARY, 1);
+    return calendar.getTime();
   }
 
   private void checkSetting(@NonNull Setting setting) {
@@ -269,6 +450,30 @@ public class RouteController {
       throw new IllegalArgumentException("Filter should not be null!");
   }
 
+  /**
+   * Answers invalid parameters with 400 Bad Request.
+   *
+   * @param e        describing the invalid parameter
+   * @param response to send the error to
+   * @throws IOException if the error could not be sent
+   */
+  @ExceptionHandler(IllegalArgumentException.class)
+  public void badRequest(IllegalArgumentException e, HttpServletResponse response) throws IOException {
+    response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+  }
+
+  /**
+   * Answers work rejected for a while, e.g. an upsert while another one runs, with 503 Service Unavailable.
+   *
+   * @param e        describing the rejection
+   * @param response to send the error to
+   * @throws IOException if the error could not be sent
+   */
+  @ExceptionHandler(RejectedExecutionException.class)
+  public void unavailable(RejectedExecutionException e, HttpServletResponse response) throws IOException {
+    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+  }
+
   /**
    * Maps given routes by time to a given quantitive value.
    *
@@ -285,17 +490,22 @@ public class RouteController {
     Map<Date, List<Double>> dateMap;
     Collector<Route, ?, Double> collector;
 
-    //Take averaging Collector on average otherwise summing
+    //Take averaging Collector on average, histogram on percentiles otherwise summing
     if(quant == QuantitiveValue.AVGDELAY)
         collector= Collectors.averagingDouble(route -> getQuant(quant, route));
+    else if (quant.isPercentile())
+        collector = Collector.of(
+            DelayHistogram::new,
+            (histogram, route) -> histogram.record(getQuant(quant, route)),
+            DelayHistogram::merge,
+            histogram -> histogram.percentile(quant.getPercentile()));
     else
         collector = Collectors.summingDouble(route -> getQuant(quant, route));
 
     //Sort by Date and collect values
      dateMap = routes
           .stream()
-          .peek(route -> route.setDate(dateNormalizer.normalizeDate(route.getDate())))
-          .collect(Collectors.groupingBy(Route::getDate,
+          .collect(Collectors.groupingBy(route -> dateNormalizer.normalizeDate(route.getDate()),
               Collectors.collectingAndThen(
                   collector,
                   Collections::singletonList
@@ -358,38 +568,28 @@ public class RouteController {
   public Map<String, List<Double>> mapToQuantitive(
       DateNormalizer dateNormalizer, QuantitiveValue quant, Set<Date> keys, Map<String, List<Route>> routeMap) {
 
-    Map<String, List<Double>> result = new TreeMap<>();
-
-    //Map to quantity for each key
-    for (String key : routeMap.keySet()) {
+    return new QuantitiveAggregation(dateNormalizer, quant, route -> getQuant(quant, route), false)
+        .map(keys, routeMap, null);
+  }
 
-      //Sort by Date
-      Map<Date, List<Route>> dateMap = routeMap.get(key)
-          .stream()
-          .peek(route -> route.setDate(dateNormalizer.normalizeDate(route.getDate())))
-          .collect(Collectors.groupingBy(Route::getDate,
-              Collectors.mapping(route -> route, Collectors.toList())));
-
-      //Insert missing keys
-      keys.forEach(keyValue -> dateMap.putIfAbsent(keyValue, new ArrayList<>()));
-
-      //Strip to one value
-      List<Double> values = dateMap.entrySet().stream()
-          .sorted(Map.Entry.comparingByKey())
-          .map(e -> {
-                DoubleStream stream = e.getValue().stream().mapToDouble(route -> getQuant(quant, route));
-                if(quant == QuantitiveValue.AVGDELAY)
-                  return stream.average().orElse(0);
-                else
-                  return stream.sum();
-              }
-          )
-          .collect(Collectors.toList());
-
-      result.put(key, values);
-    }
+  /**
+   * Maps a given route map by time to a given quantitive value in parallel.
+   * The keys and chunks of their routes are summed up as tasks of the pool.
+   * Results are identical to {@link #mapToQuantitive(DateNormalizer, QuantitiveValue, Set, Map)}.
+   *
+   * @param dateNormalizer to normalize dates.
+   * @param quant          Quantitive Value to map.
+   * @param keys           all possible keys of map.
+   * @param routeMap       data to map on.
+   * @param pool           to run tasks in.
+   * @return mapped data.
+   */
+  public Map<String, List<Double>> mapToQuantitive(
+      DateNormalizer dateNormalizer, QuantitiveValue quant, Set<Date> keys, Map<String, List<Route>> routeMap,
+      ForkJoinPool pool) {
 
-    return result;
+    return new QuantitiveAggregation(dateNormalizer, quant, route -> getQuant(quant, route), true)
+        .map(keys, routeMap, pool);
   }
 
   /**
@@ -411,6 +611,9 @@ public class RouteController {
       case CANCELLATIONS:
         return route.getCancelled();
       case AVGDELAY:
+      case P50DELAY:
+      case P90DELAY:
+      case P99DELAY:
         return route.getDelays();
       default:
         return 0;
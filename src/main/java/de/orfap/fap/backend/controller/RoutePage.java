@@ -0,0 +1,36 @@
+package de.orfap.fap.backend.controller;
+
+import de.orfap.fap.backend.domain.Route;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.controller
+ * Author(s): Rene Zarwel
+ * Date: 30.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Page of routes with the cursor of the next page.
+ */
+@Data
+@Builder
+public class RoutePage {
+
+  List<Route> routes;
+
+  /**
+   * Date in milliseconds of the last route, to pass as "after" for the next page. Null on the last page.
+   */
+  Long after;
+
+  /**
+   * Oid of the last route, to pass as "afterOid" for the next page. Null on the last page.
+   */
+  UUID afterOid;
+}
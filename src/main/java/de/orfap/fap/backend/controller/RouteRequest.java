@@ -19,7 +19,7 @@ import java.util.Date;
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
-class RouteRequest {
+public class RouteRequest {
 
   @NonNull
   private Date date;
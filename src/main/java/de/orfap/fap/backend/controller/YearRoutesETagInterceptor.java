@@ -0,0 +1,68 @@
+package de.orfap.fap.backend.controller;
+
+import de.orfap.fap.backend.service.DataVersion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.controller
+ * Author(s): Rene Zarwel
+ * Date: 04.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Answers conditional requests of {@link RouteController#findByYear} before the handler runs,
+ * so neither the database nor the cached routes are touched for an unchanged year.
+ *
+ * A year includes the first moment of the next year, like the findByYear query.
+ */
+@Component
+public class YearRoutesETagInterceptor extends HandlerInterceptorAdapter {
+
+  @Autowired
+  DataVersion dataVersion;
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+    Integer year = parseYear(request.getParameter("year"));
+
+    //Invalid requests are rejected by the handler
+    if (year == null || !"GET".equals(request.getMethod()))
+      return true;
+
+    Calendar calendar = new GregorianCalendar();
+    calendar.clear();
+    calendar.set(year, Calendar.JANUARY, 1);
+    Date start = calendar.getTime();
+    calendar.set(year + 1, Calendar.JANUARY, 1);
+    Date end = calendar.getTime();
+
+    long version = dataVersion.ofRange(start, end);
+    String etag = dataVersion.etagOf("year:" + year, version, ETags.variantOf(request));
+
+    response.setHeader(HttpHeaders.ETAG, etag);
+    if (ETags.isNotModified(request, etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return false;
+    }
+    return true;
+  }
+
+  private static Integer parseYear(String year) {
+    try {
+      return year == null ? null : Integer.valueOf(year.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
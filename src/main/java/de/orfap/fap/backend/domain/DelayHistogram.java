@@ -0,0 +1,198 @@
+package de.orfap.fap.backend.domain;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.domain
+ * Author(s): Rene Zarwel
+ * Date: 08.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Counts of route delays in log-linear buckets, mergeable by adding counts.
+ *
+ * Delays are counted in whole minutes. Delays below 32 minutes have a bucket each,
+ * above every power of two is split into 16 buckets, so a percentile is off by less
+ * than 3% of its value. Counts are only allocated up to the highest used bucket.
+ */
+public final class DelayHistogram {
+
+  /**
+   * Buckets per power of two.
+   */
+  private static final int SUB_BUCKETS = 16;
+
+  private static final int SUB_BUCKET_BITS = 4;
+
+  private static final long[] NONE = new long[0];
+
+  private long[] counts = NONE;
+
+  private long totalCount;
+
+  /**
+   * Counts a delay once.
+   *
+   * @param delay in minutes, negative is counted as 0.
+   * @return this histogram
+   */
+  public DelayHistogram record(double delay) {
+    return record(delay, 1);
+  }
+
+  /**
+   * Counts a delay several times.
+   *
+   * @param delay in minutes, negative is counted as 0.
+   * @param count of routes with this delay.
+   * @return this histogram
+   */
+  public DelayHistogram record(double delay, long count) {
+    if (count <= 0)
+      return this;
+
+    int bucket = bucketOf(delay);
+    ensure(bucket + 1);
+    counts[bucket] += count;
+    totalCount += count;
+    return this;
+  }
+
+  /**
+   * Adds the counts of another histogram.
+   *
+   * @param other to add, may be null.
+   * @return this histogram
+   */
+  public DelayHistogram merge(DelayHistogram other) {
+    if (other == null || other.totalCount == 0)
+      return this;
+
+    ensure(other.counts.length);
+    for (int bucket = 0; bucket < other.counts.length; bucket++)
+      counts[bucket] += other.counts[bucket];
+    totalCount += other.totalCount;
+    return this;
+  }
+
+  /**
+   * Number of counted delays.
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * Nearest rank percentile of the counted delays.
+   *
+   * @param percentile between 0 and 100.
+   * @return middle of the bucket holding the percentile, 0 if empty
+   */
+  public double percentile(double percentile) {
+    if (totalCount == 0)
+      return 0;
+
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+    long seen = 0;
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      seen += counts[bucket];
+      if (seen >= rank)
+        return middleOf(bucket);
+    }
+    return middleOf(counts.length - 1);
+  }
+
+  /**
+   * Encodes the used buckets as pairs of varints: distance to the previous used bucket and count.
+   *
+   * @return encoded histogram, empty if nothing is counted
+   */
+  public byte[] encode() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int previous = -1;
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      if (counts[bucket] == 0)
+        continue;
+      writeVarint(out, bucket - previous);
+      writeVarint(out, counts[bucket]);
+      previous = bucket;
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @param encoded histogram of {@link #encode()}, may be null.
+   * @return decoded histogram, empty if null
+   */
+  public static DelayHistogram decode(byte[] encoded) {
+    DelayHistogram histogram = new DelayHistogram();
+    if (encoded == null)
+      return histogram;
+
+    int[] position = {0};
+    int bucket = -1;
+    while (position[0] < encoded.length) {
+      bucket += (int) readVarint(encoded, position);
+      long count = readVarint(encoded, position);
+      histogram.ensure(bucket + 1);
+      histogram.counts[bucket] += count;
+      histogram.totalCount += count;
+    }
+    return histogram;
+  }
+
+  /**
+   * @param delay in minutes
+   * @return bucket of the delay
+   */
+  static int bucketOf(double delay) {
+    long minutes = delay > 0 ? (long) delay : 0;
+    if (minutes < 2 * SUB_BUCKETS)
+      return (int) minutes;
+
+    int exponent = 63 - Long.numberOfLeadingZeros(minutes);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) (minutes >>> shift) - SUB_BUCKETS;
+  }
+
+  /**
+   * @param bucket of {@link #bucketOf(double)}
+   * @return middle of the whole minutes of the bucket
+   */
+  static double middleOf(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS)
+      return bucket;
+
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    return lowest + ((1L << shift) - 1) / 2.0;
+  }
+
+  private void ensure(int length) {
+    if (counts.length < length)
+      counts = Arrays.copyOf(counts, length);
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarint(byte[] encoded, int[] position) {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = encoded[position[0]++];
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+}
@@ -0,0 +1,106 @@
+package de.orfap.fap.backend.domain;
+
+import lombok.Value;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.domain
+ * Author(s): Rene Zarwel
+ * Date: 28.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Cache key of the route filter.
+ *
+ * Holds only the fields of a setting that change the filter result,
+ * so settings differing in name, creator or order of ids share one entry.
+ */
+@Value
+public class FilterKey implements Serializable {
+
+  /**
+   * Start of range in milliseconds, null if not set.
+   */
+  Long rangeFrom;
+
+  /**
+   * End of range in milliseconds, null if not set.
+   */
+  Long rangeTo;
+
+  /**
+   * Sorted distinct airline ids.
+   */
+  List<String> airlines;
+
+  /**
+   * Sorted distinct destination ids.
+   */
+  List<String> destinations;
+
+  TimeSteps timestep;
+
+  QualitiativeValue x;
+
+  QuantitiveValue y;
+
+  /**
+   * Key of a setting. Missing parts of the setting are taken as null.
+   *
+   * @param setting to create key of
+   * @return normalized key
+   */
+  public static FilterKey of(Setting setting) {
+    if (setting == null)
+      return new FilterKey(null, null, Collections.emptyList(), Collections.emptyList(), null, null, null);
+
+    Filter filter = setting.getFilter();
+    Axis axis = setting.getAxis();
+
+    return new FilterKey(
+        toMillis(setting.getRangeFrom()),
+        toMillis(setting.getRangeTo()),
+        normalize(filter == null ? null : filter.getAirlines()),
+        normalize(filter == null ? null : filter.getDestinations()),
+        filter == null ? null : filter.getTimestep(),
+        axis == null ? null : axis.getX(),
+        axis == null ? null : axis.getY()
+    );
+  }
+
+  /**
+   * Checks if the filtered range overlaps a range of changed routes.
+   * Keys without a complete range overlap everything.
+   *
+   * @param from start of the first changed day (included)
+   * @param to   last changed date (included)
+   * @return true if the result of this key may have changed
+   */
+  public boolean overlaps(Date from, Date to) {
+    if (rangeFrom == null || rangeTo == null)
+      return true;
+
+    return rangeFrom <= to.getTime() && rangeTo >= from.getTime();
+  }
+
+  private static Long toMillis(Date date) {
+    return date == null ? null : date.getTime();
+  }
+
+  private static List<String> normalize(List<String> ids) {
+    if (ids == null || ids.isEmpty())
+      return Collections.emptyList();
+
+    List<String> sorted = new ArrayList<>();
+    ids.stream().filter(Objects::nonNull).sorted().distinct().forEach(sorted::add);
+    return Collections.unmodifiableList(sorted);
+  }
+}
@@ -10,5 +10,29 @@ package de.orfap.fap.backend.domain;
  * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
  */
 public enum QuantitiveValue {
-  FLIGHTS, PASSENGERS, DELAYFREQ, CANCELLATIONS, AVGDELAY
+  FLIGHTS, PASSENGERS, DELAYFREQ, CANCELLATIONS, AVGDELAY, P50DELAY(50), P90DELAY(90), P99DELAY(99);
+
+  /**
+   * Percentile of route delays, 0 for sums and averages.
+   */
+  private final double percentile;
+
+  QuantitiveValue() {
+    this(0);
+  }
+
+  QuantitiveValue(double percentile) {
+    this.percentile = percentile;
+  }
+
+  public double getPercentile() {
+    return percentile;
+  }
+
+  /**
+   * @return true if computed from {@link DelayHistogram}s.
+   */
+  public boolean isPercentile() {
+    return percentile > 0;
+  }
 }
@@ -8,7 +8,9 @@ import lombok.NoArgsConstructor;
 import lombok.NonNull;
 
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Past;
@@ -22,9 +24,16 @@ import java.util.Date;
  * OS: MacOS 10.11
  * Java-Version: 1.8
  * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * All queries filter routes by a date range, mostly combined with airlines or destinations,
+ * so the indexes start with the date.
  */
 @EqualsAndHashCode(callSuper = true)
 @Entity
+@Table(indexes = {
+    @Index(name = "idx_route_date_airline_destination", columnList = "date, airline_id, destination_id"),
+    @Index(name = "idx_route_date_destination", columnList = "date, destination_id")
+})
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
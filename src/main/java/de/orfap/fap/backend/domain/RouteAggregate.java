@@ -0,0 +1,58 @@
+package de.orfap.fap.backend.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.domain
+ * Author(s): Rene Zarwel
+ * Date: 16.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Sums of routes grouped by a time bucket and a series (airline or destination name).
+ * Holds the merged delay histogram of the routes, if percentiles are requested.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RouteAggregate {
+
+  /**
+   * A date within the time bucket. Has to be normalized to the timestep.
+   */
+  Date date;
+
+  /**
+   * Name of airline or destination. Empty if grouped by time only.
+   */
+  String series;
+
+  double flightCount;
+
+  double passengerCount;
+
+  double cancelled;
+
+  double delays;
+
+  long delayedCount;
+
+  long routeCount;
+
+  /**
+   * Delays of the routes. Null unless requested for percentiles.
+   */
+  DelayHistogram delayHistogram;
+
+  public RouteAggregate(
+      Date date, String series, double flightCount, double passengerCount, double cancelled, double delays,
+      long delayedCount, long routeCount) {
+    this(date, series, flightCount, passengerCount, cancelled, delays, delayedCount, routeCount, null);
+  }
+}
@@ -0,0 +1,83 @@
+package de.orfap.fap.backend.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+import java.util.Date;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.domain
+ * Author(s): Rene Zarwel
+ * Date: 14.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Pre-aggregated sums and delay histogram of all routes of one day, airline and destination.
+ * Maintained on every write of routes, so the filter never has to load raw routes.
+ */
+@EqualsAndHashCode(callSuper = true)
+@Entity
+@Table(
+    uniqueConstraints = @UniqueConstraint(columnNames = {"date", "airline_id", "destination_id"}),
+    indexes = @Index(name = "idx_route_rollup_date_destination", columnList = "date, destination_id"))
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class RouteRollup extends BaseEntity {
+
+  /**
+   * Start of the day this rollup covers.
+   */
+  @NotNull
+  @NonNull
+  Date date;
+
+  @ManyToOne
+  @NotNull
+  @NonNull
+  Airline airline;
+
+  @ManyToOne
+  @NotNull
+  @NonNull
+  Market destination;
+
+  double flightCount;
+
+  double passengerCount;
+
+  double cancelled;
+
+  double delays;
+
+  /**
+   * Number of routes with at least one delay.
+   */
+  long delayedCount;
+
+  /**
+   * Number of routes summed up in this rollup.
+   */
+  long routeCount;
+
+  /**
+   * Delays of the routes, see {@link DelayHistogram#encode()}. Null if built before histograms.
+   */
+  @Column(length = 4096)
+  byte[] delayHistogram;
+
+}
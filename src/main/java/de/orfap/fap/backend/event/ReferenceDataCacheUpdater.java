@@ -0,0 +1,85 @@
+package de.orfap.fap.backend.event;
+
+import de.orfap.fap.backend.domain.Airline;
+import de.orfap.fap.backend.domain.Market;
+import de.orfap.fap.backend.repositories.AirlineRepository;
+import de.orfap.fap.backend.repositories.MarketRepository;
+import de.orfap.fap.backend.service.ReferenceDataCache;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Consumer;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.event
+ * Author(s): Rene Zarwel
+ * Date: 22.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Keeps the {@link ReferenceDataCache} up to date on every write through the
+ * {@link AirlineRepository} and {@link MarketRepository}.
+ *
+ * Like {@link RouteChangePublisher} this covers REST writes as well as writes in code, e.g. imports.
+ */
+@Aspect
+@Component
+public class ReferenceDataCacheUpdater {
+
+  @Autowired
+  ReferenceDataCache referenceDataCache;
+
+  @AfterReturning(
+      pointcut = "execution(* de.orfap.fap.backend.repositories.AirlineRepository.save(..))",
+      returning = "saved")
+  public void afterAirlineSave(Object saved) {
+    forEach(saved, Airline.class, referenceDataCache::put);
+  }
+
+  @AfterReturning(
+      pointcut = "execution(* de.orfap.fap.backend.repositories.MarketRepository.save(..))",
+      returning = "saved")
+  public void afterMarketSave(Object saved) {
+    forEach(saved, Market.class, referenceDataCache::put);
+  }
+
+  @AfterReturning("execution(* de.orfap.fap.backend.repositories.AirlineRepository.delete(..)) && args(deleted)")
+  public void afterAirlineDelete(Object deleted) {
+    if (deleted instanceof String)
+      referenceDataCache.evictAirline((String) deleted);
+    else
+      forEach(deleted, Airline.class, referenceDataCache::evict);
+  }
+
+  @AfterReturning("execution(* de.orfap.fap.backend.repositories.MarketRepository.delete(..)) && args(deleted)")
+  public void afterMarketDelete(Object deleted) {
+    if (deleted instanceof String)
+      referenceDataCache.evictMarket((String) deleted);
+    else
+      forEach(deleted, Market.class, referenceDataCache::evict);
+  }
+
+  @AfterReturning("execution(* de.orfap.fap.backend.repositories.AirlineRepository.deleteAll()) "
+      + "|| execution(* de.orfap.fap.backend.repositories.MarketRepository.deleteAll())")
+  public void afterDeleteAll() {
+    referenceDataCache.clear();
+  }
+
+  /**
+   * @param entities entity or entities written
+   * @param type     of entities to pass on
+   * @param action   for each entity of the type
+   */
+  private static <T> void forEach(Object entities, Class<T> type, Consumer<T> action) {
+    if (type.isInstance(entities))
+      action.accept(type.cast(entities));
+    else if (entities instanceof Iterable)
+      for (Object entity : (Iterable<?>) entities)
+        if (type.isInstance(entity))
+          action.accept(type.cast(entity));
+  }
+}
@@ -0,0 +1,130 @@
+package de.orfap.fap.backend.event;
+
+import de.orfap.fap.backend.domain.Route;
+import de.orfap.fap.backend.repositories.RouteRepository;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.event
+ * Author(s): Rene Zarwel
+ * Date: 14.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Publishes a {@link RoutesChangedEvent} for every write through the {@link RouteRepository}.
+ *
+ * Unlike the repository event listeners this also covers writes which
+ * do not go through the REST interface, e.g. saveAll. Updates cover the
+ * stored date as well, so moving a route refreshes its old day too.
+ */
+@Aspect
+@Component
+public class RouteChangePublisher {
+
+  private static final int MAX_OIDS_PER_QUERY = 1000;
+
+  @Autowired
+  ApplicationEventPublisher publisher;
+
+  @Autowired
+  RouteRepository routeRepository;
+
+  @PersistenceContext
+  EntityManager entityManager;
+
+  @Around("execution(* de.orfap.fap.backend.repositories.RouteRepository.save(..)) && args(saved)")
+  public Object aroundSave(ProceedingJoinPoint joinPoint, Object saved) throws Throwable {
+
+    //Lookup dates of saved routes before they are overwritten, an update may move a route
+    RoutesChangedEvent previous = RoutesChangedEvent.ofDates(persistedDates(saved));
+
+    Object result = joinPoint.proceed();
+
+    RoutesChangedEvent event = eventOf(result);
+    event = event == null ? previous : event.and(previous);
+
+    if (event != null)
+      publisher.publishEvent(event);
+
+    return result;
+  }
+
+  @Around("execution(* de.orfap.fap.backend.repositories.RouteRepository.delete(..)) && args(deleted)")
+  public Object aroundDelete(ProceedingJoinPoint joinPoint, Object deleted) throws Throwable {
+
+    //Lookup route before it is gone to get its date
+    if (deleted instanceof UUID)
+      deleted = routeRepository.findOne((UUID) deleted);
+
+    Object result = joinPoint.proceed();
+
+    publish(deleted);
+
+    return result;
+  }
+
+  @AfterReturning("execution(* de.orfap.fap.backend.repositories.RouteRepository.deleteAll())")
+  public void afterDeleteAll() {
+    publisher.publishEvent(RoutesChangedEvent.all());
+  }
+
+  private void publish(Object routes) {
+    RoutesChangedEvent event = eventOf(routes);
+    if (event != null)
+      publisher.publishEvent(event);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static RoutesChangedEvent eventOf(Object routes) {
+    if (routes instanceof Route)
+      return RoutesChangedEvent.of(Collections.singletonList((Route) routes));
+    if (routes instanceof Iterable)
+      return RoutesChangedEvent.of((Iterable<? extends Route>) routes);
+    return null;
+  }
+
+  /**
+   * Reads the stored dates of already saved routes from the database.
+   *
+   * The query does not flush, so routes changed in the persistence context still give their old dates.
+   *
+   * @param routes route or routes to save
+   * @return distinct stored dates, empty if no route is stored yet
+   */
+  @SuppressWarnings("unchecked")
+  private List<Date> persistedDates(Object routes) {
+    List<UUID> oids = new ArrayList<>();
+    if (routes instanceof Route)
+      routes = Collections.singletonList(routes);
+    if (routes instanceof Iterable)
+      for (Object route : (Iterable<Object>) routes)
+        if (route instanceof Route && ((Route) route).getOid() != null)
+          oids.add(((Route) route).getOid());
+
+    List<Date> dates = new ArrayList<>();
+    for (int from = 0; from < oids.size(); from += MAX_OIDS_PER_QUERY)
+      dates.addAll(entityManager
+          .createQuery("select distinct r.date from Route r where r.oid in :oids", Date.class)
+          .setParameter("oids", oids.subList(from, Math.min(oids.size(), from + MAX_OIDS_PER_QUERY)))
+          .setFlushMode(FlushModeType.COMMIT)
+          .getResultList());
+    return dates;
+  }
+}
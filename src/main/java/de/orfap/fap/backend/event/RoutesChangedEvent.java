@@ -0,0 +1,172 @@
+package de.orfap.fap.backend.event;
+
+import de.orfap.fap.backend.domain.Route;
+import lombok.Data;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.event
+ * Author(s): Rene Zarwel
+ * Date: 14.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Published after routes were saved or deleted.
+ * Carries the local days touched by the write, so derived data
+ * only has to be refreshed for these days, see {@link #getRanges()}.
+ */
+@Getter
+@ToString
+public class RoutesChangedEvent {
+
+  /**
+   * Start of the earliest day touched (included). Null if all routes are affected.
+   */
+  private final Date from;
+
+  /**
+   * End of the latest day touched (included). Null if all routes are affected.
+   */
+  private final Date to;
+
+  /**
+   * Starts of all days touched, empty if all routes are affected.
+   */
+  private final SortedSet<Date> days;
+
+  private RoutesChangedEvent(SortedSet<Date> days) {
+    this.days = Collections.unmodifiableSortedSet(days);
+    this.from = days.isEmpty() ? null : days.first();
+    this.to = days.isEmpty() ? null : endOfDay(days.last());
+  }
+
+  /**
+   * Event for a write affecting all routes, e.g. deleteAll.
+   * @return event without days
+   */
+  public static RoutesChangedEvent all() {
+    return new RoutesChangedEvent(new TreeSet<>());
+  }
+
+  /**
+   * Creates an event covering the days of all given routes.
+   * @param routes written routes
+   * @return event or null if there are no routes
+   */
+  public static RoutesChangedEvent of(Iterable<? extends Route> routes) {
+    List<Date> dates = new ArrayList<>();
+    routes.forEach(route -> dates.add(route.getDate()));
+    return ofDates(dates);
+  }
+
+  /**
+   * Creates an event covering the days of the given dates.
+   * @param dates touched by a write, nulls are skipped
+   * @return event or null if there are no dates
+   */
+  public static RoutesChangedEvent ofDates(Iterable<Date> dates) {
+    SortedSet<Date> days = new TreeSet<>();
+    Calendar calendar = Calendar.getInstance(Locale.US);
+
+    for (Date date : dates) {
+      if (date == null)
+        continue;
+      calendar.setTime(date);
+      calendar.set(Calendar.HOUR_OF_DAY, 0);
+      calendar.set(Calendar.MINUTE, 0);
+      calendar.set(Calendar.SECOND, 0);
+      calendar.set(Calendar.MILLISECOND, 0);
+      days.add(calendar.getTime());
+    }
+
+    return days.isEmpty() ? null : new RoutesChangedEvent(days);
+  }
+
+  /**
+   * @param other event of another write, may be null
+   * @return event covering the days of both writes
+   */
+  public RoutesChangedEvent and(RoutesChangedEvent other) {
+    if (other == null)
+      return this;
+    if (isAll() || other.isAll())
+      return all();
+
+    SortedSet<Date> both = new TreeSet<>(days);
+    both.addAll(other.days);
+    return new RoutesChangedEvent(both);
+  }
+
+  /**
+   * Splits the touched days into runs of consecutive days,
+   * so days between distant writes are left alone.
+   *
+   * @return ranges from the start of the first to the end of the last day of each run, empty if all
+   */
+  public List<Range> getRanges() {
+    List<Range> ranges = new ArrayList<>();
+    Date first = null;
+    Date last = null;
+
+    for (Date day : days) {
+      if (first != null && !day.equals(nextDay(last))) {
+        ranges.add(new Range(first, endOfDay(last)));
+        first = null;
+      }
+      if (first == null)
+        first = day;
+      last = day;
+    }
+    if (first != null)
+      ranges.add(new Range(first, endOfDay(last)));
+
+    return ranges;
+  }
+
+  /**
+   * @return true if all routes are affected.
+   */
+  public boolean isAll() {
+    return days.isEmpty();
+  }
+
+  private static Date nextDay(Date day) {
+    Calendar calendar = Calendar.getInstance(Locale.US);
+    calendar.setTime(day);
+    calendar.add(Calendar.DAY_OF_MONTH, 1);
+    return calendar.getTime();
+  }
+
+  private static Date endOfDay(Date day) {
+    return new Date(nextDay(day).getTime() - 1);
+  }
+
+  /**
+   * Consecutive days touched by a write.
+   */
+  @Data
+  public static class Range {
+
+    /**
+     * Start of the first day (included).
+     */
+    private final Date from;
+
+    /**
+     * End of the last day (included).
+     */
+    private final Date to;
+  }
+}
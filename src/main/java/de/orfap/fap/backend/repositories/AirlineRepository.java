@@ -2,7 +2,12 @@ package de.orfap.fap.backend.repositories;
 
 import de.orfap.fap.backend.domain.Airline;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Organization: HM FK07.
@@ -19,5 +24,12 @@ public interface AirlineRepository extends CrudRepository<Airline, String> {
   //FindBy Methods
   // http://docs.spring.io/spring-data/jpa/docs/current/reference/html/#jpa.query-methods
 
+  /**
+   * Find all airlines of the given ids with a single query.
+   * @param ids to find
+   * @return found airlines
+   */
+  @RestResource(exported = false)
+  List<Airline> findByIdIn(@Param("ids") Collection<String> ids);
 
 }
@@ -1,14 +1,21 @@
 package de.orfap.fap.backend.repositories;
 
 import de.orfap.fap.backend.domain.Route;
-import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 /**
  * Organization: HM FK07.
@@ -22,28 +29,24 @@ import java.util.UUID;
 @RepositoryRestResource
 public interface RouteRepository extends CrudRepository<Route, UUID> {
 
+  //Writes publish a RoutesChangedEvent, see RouteChangePublisher
+
   @Override
-  @CacheEvict(value = {"yearRoutes", "filter"}, allEntries = true)
   <S extends Route> S save(S entity);
 
   @Override
-  @CacheEvict(value = {"yearRoutes", "filter"}, allEntries = true)
   <S extends Route> Iterable<S> save(Iterable<S> entities);
 
   @Override
-  @CacheEvict(value = {"yearRoutes", "filter"}, allEntries = true)
   void delete(UUID uuid);
 
   @Override
-  @CacheEvict(value = {"yearRoutes", "filter"}, allEntries = true)
   void delete(Route entity);
 
   @Override
-  @CacheEvict(value = {"yearRoutes", "filter"}, allEntries = true)
   void delete(Iterable<? extends Route> entities);
 
   @Override
-  @CacheEvict(value = {"yearRoutes", "filter"}, allEntries = true)
   void deleteAll();
 
   //FindBy Methods
@@ -65,6 +68,13 @@ public interface RouteRepository extends CrudRepository<Route, UUID> {
       @Param("end")Date end,
       @Param("destinations") List<String> destinations);
 
+  /**
+   * Routes are loaded read-only with their airline and markets in one query,
+   * so Hibernate keeps no snapshots for dirty checking.
+   */
+  @Transactional(readOnly = true)
+  @EntityGraph(attributePaths = {"airline", "source", "destination"})
+  @QueryHints(@QueryHint(name = "org.hibernate.readOnly", value = "true"))
   List<Route> findByDateBetween(
       @Param("start")Date start,
       @Param("end")Date end);
@@ -94,4 +104,136 @@ public interface RouteRepository extends CrudRepository<Route, UUID> {
           start, end, airports, destinations
       );
   }
+
+  /**
+   * Sums up routes of a given range per day, airline and destination.
+   *
+   * Columns: year, month, day, airline id, destination id, flights, passengers,
+   * cancelled, delays, delayed routes, routes.
+   *
+   * @param start of range (included)
+   * @param end of range (excluded)
+   * @return daily sums
+   */
+  @RestResource(exported = false)
+  @Query("select year(r.date), month(r.date), day(r.date), r.airline.id, r.destination.id, "
+      + "sum(r.flightCount), sum(r.passengerCount), sum(r.cancelled), sum(r.delays), "
+      + "sum(case when r.delays > 0 then 1 else 0 end), count(r) "
+      + "from Route r where r.date >= :start and r.date < :end "
+      + "group by year(r.date), month(r.date), day(r.date), r.airline.id, r.destination.id")
+  List<Object[]> sumByDay(@Param("start") Date start, @Param("end") Date end);
+
+  /**
+   * Counts routes of a given range per day, airline, destination and delay.
+   *
+   * Columns: year, month, day, airline id, destination id, delays, routes.
+   *
+   * @param start of range (included)
+   * @param end of range (excluded)
+   * @return daily counts of each delay
+   */
+  @RestResource(exported = false)
+  @Query("select year(r.date), month(r.date), day(r.date), r.airline.id, r.destination.id, r.delays, count(r) "
+      + "from Route r where r.date >= :start and r.date < :end "
+      + "group by year(r.date), month(r.date), day(r.date), r.airline.id, r.destination.id, r.delays")
+  List<Object[]> countDelaysByDay(@Param("start") Date start, @Param("end") Date end);
+
+  /**
+   * Page of routes within a given range after a given route, ordered by date and oid.
+   *
+   * @param start of range (included)
+   * @param end of range (excluded)
+   * @param afterDate date of the last route of the previous page
+   * @param afterOid oid of the last route of the previous page
+   * @param pageable size of page, has to start at page 0
+   * @return next page of routes, read-only
+   */
+  @RestResource(exported = false)
+  @Transactional(readOnly = true)
+  @EntityGraph(attributePaths = {"airline", "source", "destination"})
+  @QueryHints(@QueryHint(name = "org.hibernate.readOnly", value = "true"))
+  @Query("select r from Route r where r.date >= :start and r.date < :end "
+      + "and (r.date > :afterDate or (r.date = :afterDate and r.oid > :afterOid)) "
+      + "order by r.date, r.oid")
+  List<Route> findPageAfter(
+      @Param("start") Date start,
+      @Param("end") Date end,
+      @Param("afterDate") Date afterDate,
+      @Param("afterOid") UUID afterOid,
+      Pageable pageable);
+
+  /**
+   * Streams routes within a given range from a database cursor, ordered by date and oid.
+   * Has to be consumed within a transaction.
+   *
+   * @param start of range (included)
+   * @param end of range (excluded)
+   * @return routes, read-only
+   */
+  @RestResource(exported = false)
+  @QueryHints({
+      @QueryHint(name = "org.hibernate.fetchSize", value = "500"),
+      @QueryHint(name = "org.hibernate.readOnly", value = "true")
+  })
+  @Query("select r from Route r where r.date >= :start and r.date < :end order by r.date, r.oid")
+  Stream<Route> streamByDateRange(@Param("start") Date start, @Param("end") Date end);
+
+  /**
+   * Streams the values of routes within a given range.
+   * Has to be consumed within a transaction.
+   *
+   * Columns: date, airline id, source id, destination id, delays, cancelled, passengers, flights.
+   *
+   * @param start of range (included)
+   * @param end of range (excluded)
+   * @return values of routes
+   */
+  @RestResource(exported = false)
+  @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+  @Query("select r.date, r.airline.id, r.source.id, r.destination.id, "
+      + "r.delays, r.cancelled, r.passengerCount, r.flightCount "
+      + "from Route r where r.date >= :start and r.date < :end")
+  Stream<Object[]> streamValues(@Param("start") Date start, @Param("end") Date end);
+
+  /**
+   * Natural keys and values of the routes within a given range.
+   *
+   * Columns: oid, date, airline id, source id, destination id, delays, cancelled, passengers, flights.
+   *
+   * @param start of range (included)
+   * @param end of range (excluded)
+   * @return keys and values of routes
+   */
+  @RestResource(exported = false)
+  @Query("select r.oid, r.date, r.airline.id, r.source.id, r.destination.id, "
+      + "r.delays, r.cancelled, r.passengerCount, r.flightCount "
+      + "from Route r where r.date >= :start and r.date < :end")
+  List<Object[]> findKeys(@Param("start") Date start, @Param("end") Date end);
+
+  /**
+   * Counts routes of a given range per month.
+   *
+   * Columns: year, month, routes.
+   *
+   * @param start of range (included)
+   * @param end of range (excluded)
+   * @return monthly counts, months without routes are missing
+   */
+  @RestResource(exported = false)
+  @Query("select year(r.date), month(r.date), count(r) from Route r "
+      + "where r.date >= :start and r.date < :end "
+      + "group by year(r.date), month(r.date)")
+  List<Object[]> countByMonth(@Param("start") Date start, @Param("end") Date end);
+
+  @RestResource(exported = false)
+  @Query("select count(r) from Route r where r.date >= :start and r.date < :end")
+  long countByDateRange(@Param("start") Date start, @Param("end") Date end);
+
+  @RestResource(exported = false)
+  @Query("select min(r.date) from Route r")
+  Date findFirstDate();
+
+  @RestResource(exported = false)
+  @Query("select max(r.date) from Route r")
+  Date findLastDate();
 }
@@ -0,0 +1,48 @@
+package de.orfap.fap.backend.repositories;
+
+import de.orfap.fap.backend.domain.RouteRollup;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.repositories
+ * Author(s): Rene Zarwel
+ * Date: 14.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Rollups are maintained internally and therefore not exported.
+ */
+@RepositoryRestResource(exported = false)
+public interface RouteRollupRepository extends CrudRepository<RouteRollup, UUID>, RouteRollupRepositoryCustom {
+
+  /**
+   * Delete all rollups within a given range.
+   * @param start of range (included)
+   * @param end of range (excluded)
+   * @return number of deleted rollups
+   */
+  @Modifying
+  @Query("delete from RouteRollup r where r.date >= :start and r.date < :end")
+  int deleteByDateRange(@Param("start") Date start, @Param("end") Date end);
+
+  /**
+   * @return number of rollups built before delay histograms
+   */
+  long countByDelayHistogramIsNull();
+
+  /**
+   * Delete all rollups without loading them first.
+   */
+  @Modifying
+  @Query("delete from RouteRollup r")
+  void purge();
+}
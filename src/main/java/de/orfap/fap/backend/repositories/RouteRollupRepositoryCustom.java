@@ -0,0 +1,68 @@
+package de.orfap.fap.backend.repositories;
+
+import de.orfap.fap.backend.domain.QualitiativeValue;
+import de.orfap.fap.backend.domain.RouteAggregate;
+import de.orfap.fap.backend.domain.TimeSteps;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.repositories
+ * Author(s): Rene Zarwel
+ * Date: 16.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Grouped queries on rollups, which can not be derived from method names.
+ */
+public interface RouteRollupRepositoryCustom {
+
+  /**
+   * Sums up rollups within a given range grouped in the database.
+   *
+   * Years and months are grouped completely in the database. Days of week and weeks of year
+   * are grouped by day, as their definition differs between databases.
+   *
+   * @param start        of range (included)
+   * @param end          of range (included)
+   * @param airlines     to filter. If empty return all.
+   * @param destinations to filter. If empty return all.
+   * @param timestep     to group dates by.
+   * @param series       to group by. TIME groups by date only.
+   * @return grouped sums
+   */
+  List<RouteAggregate> aggregate(
+      Date start,
+      Date end,
+      List<String> airlines,
+      List<String> destinations,
+      TimeSteps timestep,
+      QualitiativeValue series);
+
+  /**
+   * Streams rollups within a given range with their delay histograms.
+   * Has to be consumed within a transaction and closed.
+   *
+   * Histograms can not be merged by the database, so rollups are not grouped.
+   * Each aggregate holds the sums and histogram of one rollup with the bucket and series of the rollup.
+   *
+   * @param start        of range (included)
+   * @param end          of range (included)
+   * @param airlines     to filter. If empty return all.
+   * @param destinations to filter. If empty return all.
+   * @param timestep     to select the bucket of.
+   * @param series       to select. TIME selects the date only.
+   * @return one aggregate per rollup
+   */
+  Stream<RouteAggregate> streamWithDelayHistograms(
+      Date start,
+      Date end,
+      List<String> airlines,
+      List<String> destinations,
+      TimeSteps timestep,
+      QualitiativeValue series);
+}
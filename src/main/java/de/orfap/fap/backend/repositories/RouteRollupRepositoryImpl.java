@@ -0,0 +1,194 @@
+package de.orfap.fap.backend.repositories;
+
+import de.orfap.fap.backend.domain.DelayHistogram;
+import de.orfap.fap.backend.domain.QualitiativeValue;
+import de.orfap.fap.backend.domain.RouteAggregate;
+import de.orfap.fap.backend.domain.TimeSteps;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.repositories
+ * Author(s): Rene Zarwel
+ * Date: 16.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ */
+public class RouteRollupRepositoryImpl implements RouteRollupRepositoryCustom {
+
+  private static final int FETCH_SIZE = 500;
+
+  @PersistenceContext
+  EntityManager entityManager;
+
+  @Override
+  public List<RouteAggregate> aggregate(
+      Date start,
+      Date end,
+      List<String> airlines,
+      List<String> destinations,
+      TimeSteps timestep,
+      QualitiativeValue series) {
+
+    String bucket = getBucketExpression(timestep);
+    String seriesName = getSeriesExpression(series);
+    String groupBy = seriesName == null ? bucket : bucket + ", " + seriesName;
+
+    StringBuilder jpql = new StringBuilder("select ")
+        .append(groupBy)
+        .append(", sum(r.flightCount), sum(r.passengerCount), sum(r.cancelled), sum(r.delays),")
+        .append(" sum(r.delayedCount), sum(r.routeCount)")
+        .append(" from RouteRollup r where r.date between :start and :end");
+
+    jpql.append(getFilterExpression(airlines, destinations))
+        .append(" group by ").append(groupBy);
+
+    List<Object[]> rows = query(jpql, start, end, airlines, destinations).getResultList();
+    List<RouteAggregate> result = new ArrayList<>(rows.size());
+    rows.forEach(row -> result.add(toAggregate(row, timestep, seriesName != null, false)));
+    return result;
+  }
+
+  @Override
+  public Stream<RouteAggregate> streamWithDelayHistograms(
+      Date start,
+      Date end,
+      List<String> airlines,
+      List<String> destinations,
+      TimeSteps timestep,
+      QualitiativeValue series) {
+
+    String bucket = getBucketExpression(timestep);
+    String seriesName = getSeriesExpression(series);
+
+    StringBuilder jpql = new StringBuilder("select ")
+        .append(seriesName == null ? bucket : bucket + ", " + seriesName)
+        .append(", r.flightCount, r.passengerCount, r.cancelled, r.delays, r.delayedCount, r.routeCount,")
+        .append(" r.delayHistogram from RouteRollup r where r.date between :start and :end")
+        .append(getFilterExpression(airlines, destinations));
+
+    //Scroll forward only, so rollups are never held in memory as a whole
+    ScrollableResults rows = query(jpql, start, end, airlines, destinations)
+        .unwrap(org.hibernate.Query.class)
+        .setFetchSize(FETCH_SIZE)
+        .setReadOnly(true)
+        .scroll(ScrollMode.FORWARD_ONLY);
+
+    Spliterator<RouteAggregate> rollups = new Spliterators.AbstractSpliterator<RouteAggregate>(
+        Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+
+      @Override
+      public boolean tryAdvance(Consumer<? super RouteAggregate> action) {
+        if (!rows.next())
+          return false;
+        action.accept(toAggregate(rows.get(), timestep, seriesName != null, true));
+        return true;
+      }
+    };
+
+    return StreamSupport.stream(rollups, false).onClose(rows::close);
+  }
+
+  private TypedQuery<Object[]> query(
+      CharSequence jpql, Date start, Date end, List<String> airlines, List<String> destinations) {
+
+    TypedQuery<Object[]> query = entityManager.createQuery(jpql.toString(), Object[].class)
+        .setParameter("start", start)
+        .setParameter("end", end);
+
+    if (!airlines.isEmpty())
+      query.setParameter("airlines", airlines);
+    if (!destinations.isEmpty())
+      query.setParameter("destinations", destinations);
+
+    return query;
+  }
+
+  /**
+   * Maps a selected row of bucket, optional series, sums and optional histogram.
+   */
+  private RouteAggregate toAggregate(Object[] row, TimeSteps timestep, boolean withSeries, boolean withHistogram) {
+    int sums = withSeries ? 2 : 1;
+
+    return new RouteAggregate(
+        toDate(timestep, row[0]),
+        withSeries ? (String) row[1] : "",
+        ((Number) row[sums]).doubleValue(),
+        ((Number) row[sums + 1]).doubleValue(),
+        ((Number) row[sums + 2]).doubleValue(),
+        ((Number) row[sums + 3]).doubleValue(),
+        ((Number) row[sums + 4]).longValue(),
+        ((Number) row[sums + 5]).longValue(),
+        withHistogram ? DelayHistogram.decode((byte[]) row[sums + 6]) : null
+    );
+  }
+
+  private String getFilterExpression(List<String> airlines, List<String> destinations) {
+    String filter = "";
+    if (!airlines.isEmpty())
+      filter += " and r.airline.id in :airlines";
+    if (!destinations.isEmpty())
+      filter += " and r.destination.id in :destinations";
+    return filter;
+  }
+
+  private String getBucketExpression(TimeSteps timestep) {
+    switch (timestep) {
+      case YEAR:
+        return "year(r.date)";
+      case MONTH:
+        return "month(r.date)";
+      default:
+        return "r.date";
+    }
+  }
+
+  private String getSeriesExpression(QualitiativeValue series) {
+    switch (series) {
+      case AIRLINE:
+        return "r.airline.name";
+      case DESTINATION:
+        return "r.destination.name";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Converts a selected bucket back to a date within the bucket.
+   *
+   * @param timestep of the bucket
+   * @param bucket   selected bucket value
+   * @return date within bucket
+   */
+  private Date toDate(TimeSteps timestep, Object bucket) {
+    if (bucket instanceof Date)
+      return (Date) bucket;
+
+    Calendar calendar = Calendar.getInstance(Locale.US);
+    calendar.clear();
+
+    if (timestep == TimeSteps.YEAR)
+      calendar.set(Calendar.YEAR, ((Number) bucket).intValue());
+    else
+      calendar.set(Calendar.MONTH, ((Number) bucket).intValue() - 1);
+
+    return calendar.getTime();
+  }
+}
@@ -4,6 +4,7 @@ import de.orfap.fap.backend.domain.Setting;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 import java.util.List;
 import java.util.UUID;
@@ -30,5 +31,8 @@ public interface SettingRepository extends CrudRepository<Setting, UUID> {
   List<Setting> findByCreatorContainingIgnoreCaseOrShareableTrue(
       @Param("name") String creator);
 
+  @RestResource(exported = false)
+  List<Setting> findByShareableTrue();
+
 
 }
@@ -0,0 +1,484 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.controller.RouteRequest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 06.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Parses the lines of a CSV chunk into routes.
+ *
+ * Fields are read from the bytes of the buffer by offsets. Numbers and dates are parsed
+ * without creating strings and ids are interned per chunk, so only the routes are allocated.
+ * Quoted fields may contain commas, but no line breaks.
+ */
+final class CsvChunkParser {
+
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+  /**
+   * Digits which are exact in a double mantissa.
+   */
+  private static final int MAX_DIGITS = 15;
+
+  private final Layout layout;
+  private final ByteBuffer buffer;
+
+  private final int[] starts;
+  private final int[] ends;
+
+  /**
+   * Digit groups of a date and their lengths.
+   */
+  private final int[] groups = new int[3];
+  private final int[] lengths = new int[3];
+
+  private final Calendar calendar = new GregorianCalendar();
+  private final Interner ids = new Interner();
+
+  private int lastDay = -1;
+  private long lastMillis;
+
+  /**
+   * @param layout of the columns
+   * @param buffer with whole lines from position 0 to its limit
+   */
+  CsvChunkParser(Layout layout, ByteBuffer buffer) {
+    this.layout = layout;
+    this.buffer = buffer;
+    this.starts = new int[layout.columns];
+    this.ends = new int[layout.columns];
+    calendar.setLenient(false);
+  }
+
+  /**
+   * Parses all lines. Empty lines are skipped.
+   *
+   * @return routes and rejections in order of their lines
+   */
+  Rows parse() {
+    Rows rows = new Rows();
+    int limit = buffer.limit();
+    int lineStart = 0;
+
+    while (lineStart < limit) {
+      int lineEnd = lineStart;
+      while (lineEnd < limit && buffer.get(lineEnd) != '\n')
+        lineEnd++;
+
+      int contentEnd = lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+      if (contentEnd > lineStart) {
+        try {
+          rows.add(parseLine(lineStart, contentEnd), null);
+        } catch (IllegalArgumentException e) {
+          rows.add(null, e.getMessage());
+        }
+      }
+
+      lineStart = lineEnd + 1;
+    }
+
+    return rows;
+  }
+
+  private RouteRequest parseLine(int from, int to) {
+    int fields = split(from, to);
+    if (fields < layout.columns)
+      throw new IllegalArgumentException("Expected at least " + layout.columns + " columns, found " + fields);
+
+    return new RouteRequest(
+        new Date(dateOf()),
+        number(layout.delays),
+        number(layout.cancelled),
+        number(layout.passengerCount),
+        number(layout.flightCount),
+        id(layout.airline, "airline"),
+        id(layout.source, "source"),
+        id(layout.destination, "destination"));
+  }
+
+  /**
+   * Finds the offsets of the mapped columns.
+   *
+   * @return number of fields found, at most the mapped columns
+   */
+  private int split(int from, int to) {
+    int field = 0;
+    int i = from;
+
+    while (field < layout.columns) {
+      if (i < to && buffer.get(i) == '"') {
+        int start = i + 1;
+        int j = start;
+        while (j < to && (buffer.get(j) != '"' || j + 1 < to && buffer.get(j + 1) == '"'))
+          j += buffer.get(j) == '"' ? 2 : 1;
+
+        starts[field] = start;
+        ends[field] = Math.min(j, to);
+        i = j + 1;
+        while (i < to && buffer.get(i) != ',')
+          i++;
+      } else {
+        starts[field] = i;
+        while (i < to && buffer.get(i) != ',')
+          i++;
+        ends[field] = i;
+      }
+
+      field++;
+      if (i >= to)
+        break;
+      i++;
+    }
+
+    return field;
+  }
+
+  private String id(int column, String name) {
+    int start = trimStart(column);
+    int end = trimEnd(column, start);
+    if (start == end)
+      throw new IllegalArgumentException("Missing " + name);
+    return ids.intern(buffer, start, end);
+  }
+
+  /**
+   * @return value of a column, 0 if the column is not mapped or empty
+   */
+  private double number(int column) {
+    if (column < 0)
+      return 0;
+
+    int start = trimStart(column);
+    int end = trimEnd(column, start);
+    if (start == end)
+      return 0;
+
+    int i = start;
+    boolean negative = buffer.get(i) == '-';
+    if (negative || buffer.get(i) == '+')
+      i++;
+
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean point = false;
+
+    for (; i < end; i++) {
+      byte b = buffer.get(i);
+      if (b >= '0' && b <= '9') {
+        if (++digits > MAX_DIGITS)
+          return parseSlowly(start, end);
+        mantissa = mantissa * 10 + (b - '0');
+        if (point)
+          scale++;
+      } else if (b == '.' && !point) {
+        point = true;
+      } else {
+        return parseSlowly(start, end);
+      }
+    }
+
+    if (digits == 0)
+      throw new IllegalArgumentException("Invalid number: " + text(start, end));
+
+    //Division of two exact values is rounded once, like Double.parseDouble
+    double value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Numbers with exponent or too many digits.
+   */
+  private double parseSlowly(int start, int end) {
+    String text = text(start, end);
+    try {
+      return Double.parseDouble(text);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid number: " + text);
+    }
+  }
+
+  private long dateOf() {
+    if (layout.date >= 0)
+      return parseDate(layout.date);
+
+    int day = layout.day >= 0 ? integer(layout.day) : 1;
+    return millisOf(integer(layout.year), integer(layout.month), day);
+  }
+
+  /**
+   * Reads yyyy-MM-dd, yyyyMMdd or M/d/yyyy. A time after the date is ignored.
+   */
+  private long parseDate(int column) {
+    int start = trimStart(column);
+    int end = trimEnd(column, start);
+
+    Arrays.fill(groups, 0);
+    Arrays.fill(lengths, 0);
+    int count = 0;
+    boolean digits = false;
+
+    for (int i = start; i < end; i++) {
+      byte b = buffer.get(i);
+      if (b >= '0' && b <= '9') {
+        if (!digits) {
+          if (count == groups.length)
+            break;
+          digits = true;
+          count++;
+        }
+        groups[count - 1] = groups[count - 1] * 10 + (b - '0');
+        lengths[count - 1]++;
+      } else {
+        digits = false;
+      }
+    }
+
+    if (count == 1 && lengths[0] == 8)
+      return millisOf(groups[0] / 10000, groups[0] / 100 % 100, groups[0] % 100);
+    if (count == 3 && lengths[0] == 4)
+      return millisOf(groups[0], groups[1], groups[2]);
+    if (count == 3 && lengths[2] == 4)
+      return millisOf(groups[2], groups[0], groups[1]);
+
+    throw new IllegalArgumentException("Invalid date: " + text(start, end));
+  }
+
+  /**
+   * Local midnight of a day. Files are mostly sorted by date, so the last day is kept.
+   */
+  private long millisOf(int year, int month, int day) {
+    int key = (year * 100 + month) * 100 + day;
+    if (key == lastDay)
+      return lastMillis;
+
+    try {
+      calendar.clear();
+      calendar.set(year, month - 1, day);
+      lastMillis = calendar.getTimeInMillis();
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid date: " + year + "-" + month + "-" + day);
+    }
+    lastDay = key;
+    return lastMillis;
+  }
+
+  private int integer(int column) {
+    double value = number(column);
+    if (value != Math.rint(value))
+      throw new IllegalArgumentException("Invalid integer: " + value);
+    return (int) value;
+  }
+
+  private int trimStart(int column) {
+    int start = starts[column];
+    while (start < ends[column] && buffer.get(start) == ' ')
+      start++;
+    return start;
+  }
+
+  private int trimEnd(int column, int start) {
+    int end = ends[column];
+    while (end > start && buffer.get(end - 1) == ' ')
+      end--;
+    return end;
+  }
+
+  private String text(int start, int end) {
+    byte[] bytes = new byte[end - start];
+    for (int i = start; i < end; i++)
+      bytes[i - start] = buffer.get(i);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Splits a header line into trimmed names.
+   *
+   * @param line without line break
+   * @return names of all columns
+   */
+  static List<String> parseHeader(String line) {
+    List<String> names = new ArrayList<>();
+    StringBuilder name = new StringBuilder();
+    boolean quoted = false;
+
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '"')
+        quoted = !quoted;
+      else if (c == ',' && !quoted) {
+        names.add(name.toString().trim());
+        name.setLength(0);
+      } else
+        name.append(c);
+    }
+    names.add(name.toString().trim());
+
+    return names;
+  }
+
+  /**
+   * Column indices of the route fields.
+   */
+  static final class Layout {
+
+    final int date;
+    final int year;
+    final int month;
+    final int day;
+    final int airline;
+    final int source;
+    final int destination;
+    final int delays;
+    final int cancelled;
+    final int passengerCount;
+    final int flightCount;
+
+    /**
+     * Columns to split, up to the last mapped one.
+     */
+    final int columns;
+
+    /**
+     * @param header  names of all columns
+     * @param mapping of route fields to names
+     * @throws IllegalArgumentException if a mapped column is missing
+     */
+    Layout(List<String> header, CsvColumns mapping) {
+      boolean byDate = !isEmpty(mapping.getDate());
+
+      date = byDate ? indexOf(header, mapping.getDate(), "date") : -1;
+      year = byDate ? -1 : indexOf(header, mapping.getYear(), "year");
+      month = byDate ? -1 : indexOf(header, mapping.getMonth(), "month");
+      day = byDate || isEmpty(mapping.getDay()) ? -1 : indexOf(header, mapping.getDay(), "day");
+      airline = indexOf(header, mapping.getAirline(), "airline");
+      source = indexOf(header, mapping.getSource(), "source");
+      destination = indexOf(header, mapping.getDestination(), "destination");
+      delays = optionalIndexOf(header, mapping.getDelays(), "delays");
+      cancelled = optionalIndexOf(header, mapping.getCancelled(), "cancelled");
+      passengerCount = optionalIndexOf(header, mapping.getPassengerCount(), "passengerCount");
+      flightCount = optionalIndexOf(header, mapping.getFlightCount(), "flightCount");
+
+      columns = Arrays.stream(new int[]{date, year, month, day, airline, source, destination,
+          delays, cancelled, passengerCount, flightCount}).max().getAsInt() + 1;
+    }
+
+    private static int optionalIndexOf(List<String> header, String name, String field) {
+      return isEmpty(name) ? -1 : indexOf(header, name, field);
+    }
+
+    private static int indexOf(List<String> header, String name, String field) {
+      if (isEmpty(name))
+        throw new IllegalArgumentException("No column mapped to " + field);
+
+      for (int i = 0; i < header.size(); i++)
+        if (header.get(i).toUpperCase(Locale.ROOT).equals(name.trim().toUpperCase(Locale.ROOT)))
+          return i;
+
+      throw new IllegalArgumentException("Column " + name + " of " + field + " not found in header " + header);
+    }
+
+    private static boolean isEmpty(String name) {
+      return name == null || name.trim().isEmpty();
+    }
+  }
+
+  /**
+   * Parsed lines. Every line has either a route or a rejection.
+   */
+  static final class Rows {
+
+    final List<RouteRequest> routes = new ArrayList<>();
+    final List<String> rejections = new ArrayList<>();
+
+    void add(RouteRequest route, String rejection) {
+      routes.add(route);
+      rejections.add(rejection);
+    }
+  }
+
+  /**
+   * Open addressing table of ids by their bytes, so repeated ids share one string.
+   */
+  private static final class Interner {
+
+    private byte[][] keys = new byte[64][];
+    private String[] values = new String[64];
+    private int size;
+
+    String intern(ByteBuffer buffer, int start, int end) {
+      int hash = 1;
+      for (int i = start; i < end; i++)
+        hash = 31 * hash + buffer.get(i);
+
+      int mask = keys.length - 1;
+      int slot = hash & mask;
+      while (keys[slot] != null) {
+        if (matches(keys[slot], buffer, start, end))
+          return values[slot];
+        slot = (slot + 1) & mask;
+      }
+
+      byte[] key = new byte[end - start];
+      for (int i = start; i < end; i++)
+        key[i - start] = buffer.get(i);
+
+      String value = new String(key, StandardCharsets.UTF_8);
+      keys[slot] = key;
+      values[slot] = value;
+
+      if (++size * 2 > keys.length)
+        grow();
+      return value;
+    }
+
+    private static boolean matches(byte[] key, ByteBuffer buffer, int start, int end) {
+      if (key.length != end - start)
+        return false;
+      for (int i = 0; i < key.length; i++)
+        if (key[i] != buffer.get(start + i))
+          return false;
+      return true;
+    }
+
+    private void grow() {
+      byte[][] oldKeys = keys;
+      String[] oldValues = values;
+      keys = new byte[oldKeys.length * 2][];
+      values = new String[oldKeys.length * 2];
+
+      int mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] == null)
+          continue;
+
+        int hash = 1;
+        for (byte b : oldKeys[i])
+          hash = 31 * hash + b;
+
+        int slot = hash & mask;
+        while (keys[slot] != null)
+          slot = (slot + 1) & mask;
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package de.orfap.fap.backend.service;
+
+import lombok.Data;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 06.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Mapping of CSV header names to route fields, matched ignoring case.
+ *
+ * Defaults fit the BTS on-time performance files. For T-100 files set date empty,
+ * year and month, and map passengerCount and flightCount to PASSENGERS and DEPARTURES_PERFORMED.
+ * Empty names of numeric fields leave them 0.
+ */
+@Data
+public class CsvColumns {
+
+  /**
+   * Date as yyyy-MM-dd, yyyyMMdd or M/d/yyyy. Empty to use year, month and day.
+   */
+  private String date = "FL_DATE";
+
+  private String year = "";
+
+  private String month = "";
+
+  /**
+   * Day of month, empty for the first day.
+   */
+  private String day = "";
+
+  private String airline = "UNIQUE_CARRIER";
+
+  private String source = "ORIGIN_CITY_MARKET_ID";
+
+  private String destination = "DEST_CITY_MARKET_ID";
+
+  /**
+   * Delays in minutes. Routes with negative delays are rejected, so early arrivals have to be 0.
+   */
+  private String delays = "ARR_DELAY_NEW";
+
+  private String cancelled = "CANCELLED";
+
+  private String passengerCount = "";
+
+  private String flightCount = "FLIGHTS";
+}
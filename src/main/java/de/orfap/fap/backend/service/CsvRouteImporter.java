@@ -0,0 +1,215 @@
+package de.orfap.fap.backend.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 06.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Imports routes of CSV files, e.g. BTS on-time performance or T-100 files.
+ *
+ * The file is memory-mapped in line-aligned chunks of fap.import.chunk-bytes, which are
+ * parsed in parallel by {@link CsvChunkParser}. Parsed chunks are handed to a
+ * {@link RouteIngestionService} ingestion in file order, which resolves airlines and markets
+ * and inserts in batches. Only a few chunks are parsed ahead, so memory stays bounded.
+ * Gzipped files and uploads are unpacked into a temporary file first.
+ */
+@Service
+public class CsvRouteImporter {
+
+  private static final int GZIP_MAGIC = 0x1f8b;
+
+  @Autowired
+  RouteIngestionService routeIngestionService;
+
+  @Value("${fap.import.chunk-bytes:1048576}")
+  int chunkBytes;
+
+  /**
+   * Directory of files to import by path, empty to disable.
+   */
+  @Value("${fap.import.directory:}")
+  String directory;
+
+  /**
+   * Imports a CSV file of the import directory.
+   *
+   * @param name    of the file, relative to fap.import.directory.
+   * @param columns mapping of the header.
+   * @param mode    of saving routes with the key of a saved route.
+   * @return summary of the ingestion.
+   * @throws IOException if the file could not be read.
+   */
+  public IngestionResult importFile(String name, CsvColumns columns, IngestionMode mode) throws IOException {
+    if (directory == null || directory.trim().isEmpty())
+      throw new IllegalArgumentException("Import of files is disabled, set fap.import.directory.");
+
+    Path base = Paths.get(directory).toAbsolutePath().normalize();
+    Path file = base.resolve(name).normalize();
+    if (!file.startsWith(base) || !Files.isRegularFile(file))
+      throw new IllegalArgumentException("No file " + name + " in import directory.");
+
+    if (!isGzip(file))
+      return importMapped(file, columns, mode);
+
+    try (InputStream in = Files.newInputStream(file)) {
+      return importStream(in, columns, mode);
+    }
+  }
+
+  /**
+   * Imports an uploaded CSV file, plain or gzipped.
+   *
+   * @param csv     content of the file.
+   * @param columns mapping of the header.
+   * @param mode    of saving routes with the key of a saved route.
+   * @return summary of the ingestion.
+   * @throws IOException if the upload could not be read or stored.
+   */
+  public IngestionResult importStream(InputStream csv, CsvColumns columns, IngestionMode mode) throws IOException {
+    BufferedInputStream in = new BufferedInputStream(csv);
+    in.mark(2);
+    int magic = in.read() << 8 | in.read();
+    in.reset();
+
+    Path file = Files.createTempFile("fap-import", ".csv");
+    try {
+      Files.copy(magic == GZIP_MAGIC ? new GZIPInputStream(in) : in, file, StandardCopyOption.REPLACE_EXISTING);
+      return importMapped(file, columns, mode);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Imports a plain CSV file with header.
+   */
+  private IngestionResult importMapped(Path file, CsvColumns columns, IngestionMode mode) throws IOException {
+    RouteIngestionService.Ingestion ingestion = routeIngestionService.begin(mode);
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+      long dataStart = readLine(channel, 0, headerBytes);
+
+      String header = new String(headerBytes.toByteArray(), StandardCharsets.UTF_8);
+      //Skip byte order mark
+      if (header.startsWith("\uFEFF"))
+        header = header.substring(1);
+      CsvChunkParser.Layout layout = new CsvChunkParser.Layout(CsvChunkParser.parseHeader(header.trim()), columns);
+
+      ForkJoinPool pool = ForkJoinPool.commonPool();
+      int ahead = pool.getParallelism() * 2;
+      Deque<CompletableFuture<CsvChunkParser.Rows>> parsing = new ArrayDeque<>();
+
+      try {
+        long start = dataStart;
+        while (start < size) {
+          long end = chunkEnd(channel, start, size);
+          MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+          parsing.add(CompletableFuture.supplyAsync(() -> new CsvChunkParser(layout, chunk).parse(), pool));
+          start = end;
+
+          if (parsing.size() >= ahead)
+            add(ingestion, parsing.poll());
+        }
+
+        while (!parsing.isEmpty())
+          add(ingestion, parsing.poll());
+      } finally {
+        parsing.forEach(future -> future.cancel(false));
+      }
+    } finally {
+      ingestion.finish();
+    }
+
+    return ingestion.getResult();
+  }
+
+  private static void add(RouteIngestionService.Ingestion ingestion, CompletableFuture<CsvChunkParser.Rows> parsed) {
+    CsvChunkParser.Rows rows;
+    try {
+      rows = parsed.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw e;
+    }
+
+    for (int i = 0; i < rows.routes.size(); i++) {
+      if (rows.routes.get(i) != null)
+        ingestion.add(rows.routes.get(i));
+      else
+        ingestion.reject(rows.rejections.get(i));
+    }
+  }
+
+  /**
+   * @return end of the chunk starting at start, after a line break or at the end of file
+   */
+  private long chunkEnd(FileChannel channel, long start, long size) throws IOException {
+    long end = start + chunkBytes;
+    if (end >= size)
+      return size;
+    return readLine(channel, end - 1, null);
+  }
+
+  /**
+   * Reads up to the next line break.
+   *
+   * @param line to copy the line to without line break, may be null
+   * @return position after the line break or size of file
+   */
+  private static long readLine(FileChannel channel, long position, ByteArrayOutputStream line) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+    while (true) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      if (read < 0)
+        return position;
+
+      for (int i = 0; i < read; i++) {
+        byte b = buffer.get(i);
+        if (b == '\n')
+          return position + i + 1;
+        if (line != null)
+          line.write(b);
+      }
+      position += read;
+    }
+  }
+
+  private static boolean isGzip(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return (in.read() << 8 | in.read()) == GZIP_MAGIC;
+    }
+  }
+}
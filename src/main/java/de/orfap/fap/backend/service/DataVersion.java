@@ -0,0 +1,106 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.event.RoutesChangedEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 04.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Monotonically increasing version of the routes, kept per year.
+ *
+ * Every committed write of routes takes the next version and assigns it to all touched years.
+ * The version of a range is the highest version of its years, so results of other years keep their version.
+ * Versions are counted in memory, so entity tags include the start of this instance.
+ */
+@Service
+public class DataVersion {
+
+  private final long instance = System.currentTimeMillis();
+
+  private final AtomicLong counter = new AtomicLong();
+
+  private final Map<Integer, Long> years = new ConcurrentHashMap<>();
+
+  /**
+   * Version of a write affecting all years.
+   */
+  private volatile long all;
+
+  /**
+   * Takes the next version after the write is committed,
+   * so no result of old routes gets a new version.
+   *
+   * @param event of the write
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onRoutesChanged(RoutesChangedEvent event) {
+    long version = counter.incrementAndGet();
+
+    if (event.isAll()) {
+      all = version;
+      return;
+    }
+
+    event.getRanges().forEach(range -> {
+      for (int year = yearOf(range.getFrom()); year <= yearOf(range.getTo()); year++)
+        years.merge(year, version, Math::max);
+    });
+  }
+
+  /**
+   * @return version of the latest write
+   */
+  public long current() {
+    return counter.get();
+  }
+
+  /**
+   * @param from start of range (included), null if open
+   * @param to   end of range (included), null if open
+   * @return version of the latest write touching a year of the range
+   */
+  public long ofRange(Date from, Date to) {
+    if (from == null || to == null || to.before(from))
+      return current();
+
+    long version = all;
+    for (int year = yearOf(from); year <= yearOf(to); year++)
+      version = Math.max(version, years.getOrDefault(year, 0L));
+    return version;
+  }
+
+  /**
+   * Strong entity tag of a result.
+   *
+   * @param key     normalized request the result is built of
+   * @param version of the routes of the result
+   * @param variant representation of the result, e.g. the Accept header
+   * @return quoted entity tag
+   */
+  public String etagOf(Object key, long version, String variant) {
+    String value = instance + ":" + version + ":" + variant + ":" + key;
+    return "\"" + DigestUtils.md5DigestAsHex(value.getBytes(StandardCharsets.UTF_8)) + "\"";
+  }
+
+  private static int yearOf(Date date) {
+    Calendar calendar = new GregorianCalendar();
+    calendar.setTime(date);
+    return calendar.get(Calendar.YEAR);
+  }
+}
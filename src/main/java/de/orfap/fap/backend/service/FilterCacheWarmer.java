@@ -0,0 +1,224 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.domain.FilterKey;
+import de.orfap.fap.backend.domain.Setting;
+import de.orfap.fap.backend.event.RoutesChangedEvent;
+import de.orfap.fap.backend.repositories.SettingRepository;
+import org.hibernate.Hibernate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 03.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Fills the filter cache ahead of demand.
+ *
+ * At startup and after every committed write of routes all shareable settings and the
+ * fap.filter.warm.top most requested settings are filtered in the background.
+ * Results still cached are hits, so only evicted results are computed again.
+ * Writes arriving while a warm-up is pending share it.
+ */
+@Service
+public class FilterCacheWarmer {
+
+  public static final Logger LOG = LoggerFactory.getLogger(FilterCacheWarmer.class);
+
+  @Autowired
+  SettingRepository settingRepository;
+
+  @Autowired
+  RouteFilterService routeFilterService;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  @Value("${fap.filter.warm.enabled:true}")
+  boolean enabled;
+
+  @Value("${fap.filter.warm.top:20}")
+  int top;
+
+  @Value("${fap.filter.warm.tracked:1000}")
+  int tracked;
+
+  /**
+   * Latest setting and number of requests per key.
+   */
+  private final Map<FilterKey, Access> accesses = new ConcurrentHashMap<>();
+
+  private final AtomicBoolean pending = new AtomicBoolean();
+
+  private ExecutorService executor;
+
+  @PostConstruct
+  public void start() {
+    executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "filter-warmer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @PreDestroy
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Counts a request of a setting.
+   *
+   * @param setting requested, has to be valid.
+   */
+  public void recordAccess(Setting setting) {
+    accesses.computeIfAbsent(FilterKey.of(setting), key -> new Access(setting)).hit(setting);
+
+    if (accesses.size() > tracked)
+      forgetRarelyRequested();
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void onReady() {
+    schedule();
+  }
+
+  /**
+   * Warms up after the write is committed, so the new routes are visible.
+   *
+   * @param event of the write
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onRoutesChanged(RoutesChangedEvent event) {
+    schedule();
+  }
+
+  /**
+   * Filters all shareable and the most requested settings.
+   *
+   * @return number of settings filtered
+   */
+  public int warm() {
+    Map<FilterKey, Setting> settings = new LinkedHashMap<>();
+
+    //Filters of settings are loaded lazily, so load them before the session closes
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    transaction.setReadOnly(true);
+    transaction.execute(status -> {
+      settingRepository.findByShareableTrue().forEach(setting -> {
+        if (setting.getFilter() != null) {
+          Hibernate.initialize(setting.getFilter().getAirlines());
+          Hibernate.initialize(setting.getFilter().getDestinations());
+        }
+        settings.putIfAbsent(FilterKey.of(setting), setting);
+      });
+      return null;
+    });
+
+    mostRequested(top).forEach(setting -> settings.putIfAbsent(FilterKey.of(setting), setting));
+
+    int warmed = 0;
+    for (Setting setting : settings.values()) {
+      if (!isComplete(setting))
+        continue;
+
+      try {
+        routeFilterService.filter(setting);
+        warmed++;
+      } catch (RuntimeException e) {
+        LOG.warn("Could not warm up setting {}", setting.getName(), e);
+      }
+    }
+
+    LOG.info("Warmed up {} filter results", warmed);
+    return warmed;
+  }
+
+  /**
+   * @param limit maximum number of settings
+   * @return latest setting of the most requested keys, most requested first
+   */
+  public List<Setting> mostRequested(int limit) {
+    List<Access> sorted = new ArrayList<>(accesses.values());
+    sorted.sort(Comparator.comparingLong(Access::count).reversed());
+
+    List<Setting> result = new ArrayList<>();
+    for (int i = 0; i < sorted.size() && i < limit; i++)
+      result.add(sorted.get(i).setting);
+    return result;
+  }
+
+  /**
+   * Forgets the rarely requested half, so the statistics stay bounded.
+   */
+  private synchronized void forgetRarelyRequested() {
+    if (accesses.size() <= tracked)
+      return;
+
+    List<Map.Entry<FilterKey, Access>> entries = new ArrayList<>(accesses.entrySet());
+    entries.sort(Comparator.comparingLong((Map.Entry<FilterKey, Access> entry) -> entry.getValue().count()).reversed());
+    entries.subList(tracked / 2, entries.size()).forEach(entry -> accesses.remove(entry.getKey()));
+  }
+
+  private void schedule() {
+    if (!enabled || !pending.compareAndSet(false, true))
+      return;
+
+    executor.execute(() -> {
+      //Writes during the warm-up schedule the next one
+      pending.set(false);
+      warm();
+    });
+  }
+
+  private static boolean isComplete(Setting setting) {
+    return setting.getRangeFrom() != null && setting.getRangeTo() != null
+        && setting.getFilter() != null && setting.getFilter().getTimestep() != null
+        && setting.getAxis() != null && setting.getAxis().getX() != null && setting.getAxis().getY() != null;
+  }
+
+  private static final class Access {
+
+    private final LongAdder requests = new LongAdder();
+
+    private volatile Setting setting;
+
+    Access(Setting setting) {
+      this.setting = setting;
+    }
+
+    void hit(Setting latest) {
+      setting = latest;
+      requests.increment();
+    }
+
+    long count() {
+      return requests.sum();
+    }
+  }
+}
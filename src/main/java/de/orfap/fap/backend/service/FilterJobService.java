@@ -0,0 +1,229 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.controller.FilterResponse;
+import de.orfap.fap.backend.domain.FilterKey;
+import de.orfap.fap.backend.domain.Setting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 02.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Computes filter responses in the background.
+ *
+ * Jobs run on a fixed number of threads with a bounded queue, so long analyses hold
+ * neither request threads nor more database connections than threads.
+ * A setting equal to a queued or running job joins that job instead of starting another.
+ * Finished jobs are kept for fap.filter.jobs.retention seconds.
+ */
+@Service
+public class FilterJobService {
+
+  public static final Logger LOG = LoggerFactory.getLogger(FilterJobService.class);
+
+  @Autowired
+  RouteFilterService routeFilterService;
+
+  @Value("${fap.filter.jobs.threads:2}")
+  int threads;
+
+  @Value("${fap.filter.jobs.queue-capacity:20}")
+  int queueCapacity;
+
+  @Value("${fap.filter.jobs.retention:600}")
+  long retention;
+
+  private final Map<UUID, Job> jobs = new ConcurrentHashMap<>();
+
+  /**
+   * Queued and running jobs by their key.
+   */
+  private final Map<FilterKey, Job> inFlight = new ConcurrentHashMap<>();
+
+  private ThreadPoolExecutor executor;
+
+  @PostConstruct
+  public void start() {
+    AtomicInteger count = new AtomicInteger();
+    executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity),
+        runnable -> {
+          Thread thread = new Thread(runnable, "filter-job-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  @PreDestroy
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Submits a job or joins the queued or running job of an equal setting.
+   *
+   * @param setting to compute, has to be valid.
+   * @return status of the job
+   * @throws RejectedExecutionException if the queue is full
+   */
+  public synchronized FilterJobStatus submit(Setting setting) {
+    removeExpired();
+
+    FilterKey key = FilterKey.of(setting);
+    Job job = inFlight.get(key);
+    if (job != null) {
+      job.submissions.incrementAndGet();
+      return job.status();
+    }
+
+    Job submitted = new Job(key);
+    jobs.put(submitted.id, submitted);
+    inFlight.put(key, submitted);
+
+    try {
+      executor.execute(() -> submitted.run(setting));
+    } catch (RejectedExecutionException e) {
+      jobs.remove(submitted.id);
+      inFlight.remove(key);
+      throw e;
+    }
+
+    LOG.debug("Submitted filter job {}", submitted.id);
+    return submitted.status();
+  }
+
+  /**
+   * Status of a job, waiting for it to finish at most the given time.
+   *
+   * @param id   of job
+   * @param wait maximum milliseconds to wait, 0 to return at once
+   * @return status of the job or null if unknown
+   */
+  public FilterJobStatus getStatus(UUID id, long wait) {
+    Job job = jobs.get(id);
+    if (job == null)
+      return null;
+
+    if (wait > 0) {
+      try {
+        job.result.get(wait, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException | TimeoutException e) {
+        //Status tells about failure or pending result
+      }
+    }
+
+    return job.status();
+  }
+
+  /**
+   * @param id of job
+   * @return response of a done job, null if unknown or not done
+   */
+  public FilterResponse getResult(UUID id) {
+    Job job = jobs.get(id);
+    if (job == null || job.state() != FilterJobStatus.State.DONE)
+      return null;
+
+    return job.result.getNow(null);
+  }
+
+  private void removeExpired() {
+    long expired = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(retention);
+    jobs.values().removeIf(job -> job.finished != null && job.finished.getTime() < expired);
+  }
+
+  /**
+   * Computation of a setting.
+   */
+  private final class Job {
+
+    final UUID id = UUID.randomUUID();
+    final FilterKey key;
+    final Date submitted = new Date();
+    final AtomicInteger submissions = new AtomicInteger(1);
+    final CompletableFuture<FilterResponse> result = new CompletableFuture<>();
+
+    /**
+     * Queued or running, see {@link #state()}.
+     */
+    volatile FilterJobStatus.State state = FilterJobStatus.State.QUEUED;
+    volatile Date started;
+    volatile Date finished;
+    volatile String error;
+
+    Job(FilterKey key) {
+      this.key = key;
+    }
+
+    void run(Setting setting) {
+      started = new Date();
+      state = FilterJobStatus.State.RUNNING;
+      try {
+        FilterResponse response = routeFilterService.filter(setting);
+        finished = new Date();
+        result.complete(response);
+      } catch (RuntimeException e) {
+        fail(e);
+      } catch (Error e) {
+        fail(e);
+        throw e;
+      } finally {
+        inFlight.remove(key, this);
+      }
+    }
+
+    private void fail(Throwable e) {
+      LOG.error("Filter job {} failed", id, e);
+      finished = new Date();
+      error = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+      result.completeExceptionally(e);
+    }
+
+    /**
+     * Done and failed are taken of the result, so a done job always has its result.
+     */
+    FilterJobStatus.State state() {
+      if (!result.isDone())
+        return state;
+      return result.isCompletedExceptionally() ? FilterJobStatus.State.FAILED : FilterJobStatus.State.DONE;
+    }
+
+    FilterJobStatus status() {
+      return FilterJobStatus.builder()
+          .id(id)
+          .state(state())
+          .submitted(submitted)
+          .started(started)
+          .finished(finished)
+          .submissions(submissions.get())
+          .error(error)
+          .build();
+    }
+  }
+}
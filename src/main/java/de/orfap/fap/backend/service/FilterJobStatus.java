@@ -0,0 +1,57 @@
+package de.orfap.fap.backend.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 02.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Status of a filter job.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class FilterJobStatus {
+
+  public enum State {
+    QUEUED, RUNNING, DONE, FAILED
+  }
+
+  UUID id;
+
+  State state;
+
+  Date submitted;
+
+  /**
+   * Start of the computation, null while queued.
+   */
+  Date started;
+
+  /**
+   * End of the computation, null until done or failed.
+   */
+  Date finished;
+
+  /**
+   * Number of submissions of an equal setting sharing this job.
+   */
+  int submissions;
+
+  /**
+   * Reason of a failure.
+   */
+  String error;
+}
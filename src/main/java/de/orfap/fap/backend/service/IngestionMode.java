@@ -0,0 +1,25 @@
+package de.orfap.fap.backend.service;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 07.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Treatment of routes with the date, airline, source and destination of a saved route.
+ */
+public enum IngestionMode {
+
+  /**
+   * Saves every route as a new one.
+   */
+  INSERT,
+
+  /**
+   * Updates the saved route with the same key, so replays do not change aggregates.
+   */
+  UPSERT
+}
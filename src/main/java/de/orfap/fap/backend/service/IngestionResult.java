@@ -0,0 +1,51 @@
+package de.orfap.fap.backend.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 20.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Summary of an ingestion of routes.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class IngestionResult {
+
+  /**
+   * Number of saved routes.
+   */
+  long accepted;
+
+  /**
+   * Saved routes which replaced the values of a route with the same key, on upserts only.
+   */
+  long updated;
+
+  /**
+   * Saved routes equal to a route with the same key, so nothing was written. On upserts only.
+   */
+  long unchanged;
+
+  /**
+   * Number of routes which could not be parsed, validated or saved.
+   */
+  long rejected;
+
+  /**
+   * Reasons of the first rejections.
+   */
+  List<String> errors;
+}
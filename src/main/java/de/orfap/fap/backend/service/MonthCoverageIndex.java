@@ -0,0 +1,167 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.event.RoutesChangedEvent;
+import de.orfap.fap.backend.repositories.RouteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 01.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Number of routes per month from 1970 to 2199.
+ *
+ * Counted once on startup and recounted for the touched months on every write of routes,
+ * so existence of routes in a month is answered without a query.
+ * Months outside the index and requests before startup are counted in the database.
+ */
+@Service
+public class MonthCoverageIndex {
+
+  public static final Logger LOG = LoggerFactory.getLogger(MonthCoverageIndex.class);
+
+  static final int FIRST_YEAR = 1970;
+
+  static final int LAST_YEAR = 2199;
+
+  @Autowired
+  RouteRepository routeRepository;
+
+  private final AtomicLongArray counts = new AtomicLongArray((LAST_YEAR - FIRST_YEAR + 1) * 12);
+
+  private volatile boolean loaded;
+
+  /**
+   * Count the routes of all months.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  @Transactional(readOnly = true)
+  public synchronized void load() {
+    Date first = routeRepository.findFirstDate();
+    Date last = routeRepository.findLastDate();
+
+    for (int i = 0; i < counts.length(); i++)
+      counts.set(i, 0);
+
+    if (first != null && last != null)
+      recount(first, last);
+
+    loaded = true;
+
+    LOG.info("Indexed months with routes between {} and {}", first, last);
+  }
+
+  /**
+   * Recount the months touched by a write of routes.
+   *
+   * @param event of the write
+   */
+  @EventListener
+  @Order(0)
+  @Transactional(readOnly = true)
+  public synchronized void onRoutesChanged(RoutesChangedEvent event) {
+    if (event.isAll())
+      load();
+    else
+      event.getRanges().forEach(range -> recount(range.getFrom(), range.getTo()));
+  }
+
+  /**
+   * Number of routes in a month.
+   *
+   * @param year  of month
+   * @param month 1 (January) to 12 (December)
+   * @return number of routes
+   */
+  public long count(int year, int month) {
+    int index = indexOf(year, month);
+
+    if (loaded && index >= 0)
+      return counts.get(index);
+
+    return routeRepository.countByDateRange(startOfMonth(year, month), startOfMonth(year, month + 1));
+  }
+
+  /**
+   * @param year  of month
+   * @param month 1 (January) to 12 (December)
+   * @return true if there are routes in the month
+   */
+  public boolean hasRoutes(int year, int month) {
+    return count(year, month) > 0;
+  }
+
+  /**
+   * Recounts all months between two dates.
+   *
+   * @param from date within first month (included)
+   * @param to   date within last month (included)
+   */
+  private void recount(Date from, Date to) {
+    Calendar calendar = Calendar.getInstance(Locale.US);
+
+    calendar.setTime(from);
+    int firstYear = calendar.get(Calendar.YEAR);
+    int firstMonth = calendar.get(Calendar.MONTH) + 1;
+
+    calendar.setTime(to);
+    int lastYear = calendar.get(Calendar.YEAR);
+    int lastMonth = calendar.get(Calendar.MONTH) + 1;
+
+    if (lastYear < FIRST_YEAR || firstYear > LAST_YEAR)
+      return;
+
+    Map<Integer, Long> found = new HashMap<>();
+    for (Object[] row : routeRepository.countByMonth(
+        startOfMonth(firstYear, firstMonth), startOfMonth(lastYear, lastMonth + 1))) {
+
+      int index = indexOf(((Number) row[0]).intValue(), ((Number) row[1]).intValue());
+      if (index >= 0)
+        found.put(index, ((Number) row[2]).longValue());
+    }
+
+    //Set every month at once, so readers never see a month emptied
+    int firstIndex = firstYear < FIRST_YEAR ? 0 : indexOf(firstYear, firstMonth);
+    int lastIndex = lastYear > LAST_YEAR ? counts.length() - 1 : indexOf(lastYear, lastMonth);
+
+    for (int index = firstIndex; index <= lastIndex; index++)
+      counts.set(index, found.getOrDefault(index, 0L));
+  }
+
+  /**
+   * @return position of month in the index, -1 if not indexed
+   */
+  private static int indexOf(int year, int month) {
+    if (year < FIRST_YEAR || year > LAST_YEAR || month < 1 || month > 12)
+      return -1;
+    return (year - FIRST_YEAR) * 12 + month - 1;
+  }
+
+  /**
+   * @param month 1 based, may be 13 for January of the next year
+   */
+  private static Date startOfMonth(int year, int month) {
+    Calendar calendar = Calendar.getInstance(Locale.US);
+    calendar.clear();
+    calendar.set(year, month - 1, 1);
+    return calendar.getTime();
+  }
+}
@@ -0,0 +1,146 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.domain.Airline;
+import de.orfap.fap.backend.domain.Market;
+import de.orfap.fap.backend.repositories.AirlineRepository;
+import de.orfap.fap.backend.repositories.MarketRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 22.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * In-memory cache of all airlines and markets.
+ *
+ * Loaded once on startup and kept up to date by the {@link de.orfap.fap.backend.event.ReferenceDataCacheUpdater}
+ * on every write through the airline and market repositories.
+ * Ids missing in the cache are loaded with a single query per batch.
+ */
+@Service
+public class ReferenceDataCache {
+
+  public static final Logger LOG = LoggerFactory.getLogger(ReferenceDataCache.class);
+
+  @Autowired
+  AirlineRepository airlineRepository;
+
+  @Autowired
+  MarketRepository marketRepository;
+
+  private final ConcurrentMap<String, Airline> airlines = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Market> markets = new ConcurrentHashMap<>();
+
+  /**
+   * Load all airlines and markets.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void load() {
+    airlineRepository.findAll().forEach(this::put);
+    marketRepository.findAll().forEach(this::put);
+
+    LOG.info("Cached {} airlines and {} markets", airlines.size(), markets.size());
+  }
+
+  /**
+   * Resolves airlines by id. Missing airlines are loaded with one query.
+   *
+   * @param ids of airlines
+   * @return airlines by id. Unknown ids are missing.
+   */
+  public Map<String, Airline> resolveAirlines(Collection<String> ids) {
+    return resolve(ids, airlines, airlineRepository::findByIdIn, Airline::getId);
+  }
+
+  /**
+   * Resolves markets by id. Missing markets are loaded with one query.
+   *
+   * @param ids of markets
+   * @return markets by id. Unknown ids are missing.
+   */
+  public Map<String, Market> resolveMarkets(Collection<String> ids) {
+    return resolve(ids, markets, marketRepository::findByIdIn, Market::getId);
+  }
+
+  public void put(Airline airline) {
+    airlines.put(airline.getId(), airline);
+  }
+
+  public void put(Market market) {
+    markets.put(market.getId(), market);
+  }
+
+  public void evict(Airline airline) {
+    evictAirline(airline.getId());
+  }
+
+  public void evict(Market market) {
+    evictMarket(market.getId());
+  }
+
+  public void evictAirline(String id) {
+    airlines.remove(id);
+  }
+
+  public void evictMarket(String id) {
+    markets.remove(id);
+  }
+
+  /**
+   * Drop all cached data. It is loaded again on demand.
+   */
+  public void clear() {
+    airlines.clear();
+    markets.clear();
+  }
+
+  private <T> Map<String, T> resolve(
+      Collection<String> ids,
+      ConcurrentMap<String, T> cache,
+      Function<Collection<String>, List<T>> loader,
+      Function<T, String> idOf) {
+
+    Map<String, T> result = new HashMap<>();
+    Set<String> missing = new LinkedHashSet<>();
+
+    for (String id : ids) {
+      if (id == null || result.containsKey(id))
+        continue;
+
+      T cached = cache.get(id);
+      if (cached != null)
+        result.put(id, cached);
+      else
+        missing.add(id);
+    }
+
+    if (!missing.isEmpty()) {
+      for (T loaded : loader.apply(missing)) {
+        cache.put(idOf.apply(loaded), loaded);
+        result.put(idOf.apply(loaded), loaded);
+      }
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,68 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.domain.QualitiativeValue;
+import de.orfap.fap.backend.domain.RouteAggregate;
+import de.orfap.fap.backend.domain.TimeSteps;
+import de.orfap.fap.backend.repositories.RouteRollupRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 27.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Default filter engine. Lets the database sum up the daily rollups.
+ */
+@Service
+@ConditionalOnProperty(name = "fap.filter.engine", havingValue = "rollup", matchIfMissing = true)
+public class RollupRouteAggregator implements RouteAggregator {
+
+  @Autowired
+  RouteRollupRepository routeRollupRepository;
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<RouteAggregate> aggregate(
+      Date start,
+      Date end,
+      List<String> airlines,
+      List<String> destinations,
+      TimeSteps timestep,
+      QualitiativeValue series) {
+
+    return routeRollupRepository.aggregate(start, end, airlines, destinations, timestep, series);
+  }
+
+  /**
+   * Merges the histograms of single rollups, so a few per day, airline and destination.
+   * Rollups are scrolled within the transaction and passed on row by row.
+   */
+  @Override
+  @Transactional(readOnly = true)
+  public void aggregateWithDelayHistograms(
+      Date start,
+      Date end,
+      List<String> airlines,
+      List<String> destinations,
+      TimeSteps timestep,
+      QualitiativeValue series,
+      Consumer<RouteAggregate> consumer) {
+
+    try (Stream<RouteAggregate> rollups = routeRollupRepository.streamWithDelayHistograms(
+        start, end, airlines, destinations, timestep, series)) {
+      rollups.forEach(consumer);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.domain.QualitiativeValue;
+import de.orfap.fap.backend.domain.RouteAggregate;
+import de.orfap.fap.backend.domain.TimeSteps;
+
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 27.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Engine summing up routes for the route filter.
+ *
+ * The engine is chosen by the property fap.filter.engine:
+ * "rollup" (default) sums the daily rollups in the database,
+ * "columnar" scans all routes held in primitive columns in memory.
+ */
+public interface RouteAggregator {
+
+  /**
+   * Sums up routes by date bucket and series.
+   *
+   * @param start        of range (included)
+   * @param end          of range (included)
+   * @param airlines     to filter. If empty all.
+   * @param destinations to filter. If empty all.
+   * @param timestep     of the buckets
+   * @param series       to group by. TIME gives a single empty series.
+   * @return aggregates, each with a date within its bucket
+   */
+  List<RouteAggregate> aggregate(
+      Date start,
+      Date end,
+      List<String> airlines,
+      List<String> destinations,
+      TimeSteps timestep,
+      QualitiativeValue series);
+
+  /**
+   * Sums up routes like {@link #aggregate} and merges the histograms of their delays.
+   * Aggregates of one bucket and series may be split, they have to be summed up again.
+   * They are passed on one by one, so they are never held as a whole.
+   *
+   * @param start        of range (included)
+   * @param end          of range (included)
+   * @param airlines     to filter. If empty all.
+   * @param destinations to filter. If empty all.
+   * @param timestep     of the buckets
+   * @param series       to group by. TIME gives a single empty series.
+   * @param consumer     of aggregates with delay histograms, each with a date within its bucket
+   */
+  void aggregateWithDelayHistograms(
+      Date start,
+      Date end,
+      List<String> airlines,
+      List<String> destinations,
+      TimeSteps timestep,
+      QualitiativeValue series,
+      Consumer<RouteAggregate> consumer);
+}
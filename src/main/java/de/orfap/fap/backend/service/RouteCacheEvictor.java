@@ -0,0 +1,148 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.cache.BoundedCache;
+import de.orfap.fap.backend.controller.EncodedFilterResponses;
+import de.orfap.fap.backend.domain.FilterKey;
+import de.orfap.fap.backend.event.RoutesChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 28.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Evicts cached route results touched by a write of routes.
+ *
+ * Only years and filter ranges overlapping the written days are evicted,
+ * so continuous ingestion keeps the cached results of other ranges.
+ * Runs after the write is committed, so no stale result is cached again.
+ */
+@Service
+public class RouteCacheEvictor {
+
+  public static final Logger LOG = LoggerFactory.getLogger(RouteCacheEvictor.class);
+
+  public static final String YEAR_ROUTES = "yearRoutes";
+
+  public static final String FILTER = "filter";
+
+  public static final String FILTER_BYTES = "filterBytes";
+
+  @Autowired
+  CacheManager cacheManager;
+
+  /**
+   * Evict cached results of a write of routes after it is committed,
+   * so no concurrent filter caches the routes before the write again.
+   * Runs before the warm-up of filters.
+   *
+   * @param event of the write
+   */
+  @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+  @Order(0)
+  public void onRoutesChanged(RoutesChangedEvent event) {
+    Cache yearRoutes = cacheManager.getCache(YEAR_ROUTES);
+    Cache filter = cacheManager.getCache(FILTER);
+    Cache filterBytes = cacheManager.getCache(FILTER_BYTES);
+
+    if (event.isAll()) {
+      clear(yearRoutes);
+      clear(filter);
+      clear(filterBytes);
+      return;
+    }
+
+    //Only the touched days, not the days between distant writes
+    for (RoutesChangedEvent.Range range : event.getRanges()) {
+      Date from = range.getFrom();
+      Date to = range.getTo();
+
+      if (yearRoutes != null)
+        evictYears(yearRoutes, from, to);
+
+      if (filter != null)
+        evictFilters(filter, from, to);
+
+      if (filterBytes != null)
+        evictFilters(filterBytes, from, to);
+    }
+  }
+
+  /**
+   * Evicts all years overlapping the range.
+   * A year includes the first moment of the next year, like the findByYear query.
+   */
+  private void evictYears(Cache cache, Date from, Date to) {
+    Calendar calendar = new GregorianCalendar();
+    calendar.setTime(from);
+    int firstYear = calendar.get(Calendar.YEAR);
+    calendar.setTime(to);
+    int lastYear = calendar.get(Calendar.YEAR);
+
+    for (int year = firstYear - 1; year <= lastYear; year++) {
+      calendar.clear();
+      calendar.set(year + 1, Calendar.JANUARY, 1);
+
+      if (year >= firstYear || !calendar.getTime().before(from))
+        cache.evict(year);
+    }
+  }
+
+  private void evictFilters(Cache cache, Date from, Date to) {
+    Collection<?> keys = keysOf(cache);
+    if (keys == null) {
+      cache.clear();
+      return;
+    }
+
+    List<Object> touched = new ArrayList<>();
+    for (Object key : keys) {
+      FilterKey filterKey = key instanceof EncodedFilterResponses.Key
+          ? ((EncodedFilterResponses.Key) key).getFilter()
+          : key instanceof FilterKey ? (FilterKey) key : null;
+
+      if (filterKey == null || filterKey.overlaps(from, to))
+        touched.add(key);
+    }
+
+    touched.forEach(cache::evict);
+
+    LOG.debug("Evicted {} filter results between {} and {}", touched.size(), from, to);
+  }
+
+  /**
+   * @return keys of the cache or null, if keys are not accessible
+   */
+  private static Collection<?> keysOf(Cache cache) {
+    if (cache instanceof BoundedCache)
+      return ((BoundedCache) cache).keys();
+    if (cache.getNativeCache() instanceof Map)
+      return ((Map<?, ?>) cache.getNativeCache()).keySet();
+    return null;
+  }
+
+  private static void clear(Cache cache) {
+    if (cache != null)
+      cache.clear();
+  }
+}
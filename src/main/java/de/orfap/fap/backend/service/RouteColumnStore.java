@@ -0,0 +1,206 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.controller.DateBuckets;
+import de.orfap.fap.backend.domain.Airline;
+import de.orfap.fap.backend.domain.Market;
+import de.orfap.fap.backend.domain.QualitiativeValue;
+import de.orfap.fap.backend.domain.RouteAggregate;
+import de.orfap.fap.backend.domain.TimeSteps;
+import de.orfap.fap.backend.event.RoutesChangedEvent;
+import de.orfap.fap.backend.repositories.RouteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 27.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Filter engine holding all routes in {@link RouteColumns}.
+ *
+ * Enabled with fap.filter.engine=columnar. Loaded on startup and
+ * refreshed for the touched days on every write of routes.
+ */
+@Service
+@ConditionalOnProperty(name = "fap.filter.engine", havingValue = "columnar")
+public class RouteColumnStore implements RouteAggregator {
+
+  public static final Logger LOG = LoggerFactory.getLogger(RouteColumnStore.class);
+
+  @Autowired
+  RouteRepository routeRepository;
+
+  @Autowired
+  ReferenceDataCache referenceDataCache;
+
+  /**
+   * Local days of the default time zone. The timestep is not used.
+   */
+  private final DateBuckets days = DateBuckets.of(TimeSteps.YEAR);
+
+  private volatile RouteColumns columns = RouteColumns.EMPTY;
+
+  /**
+   * Load all routes.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  @Transactional(readOnly = true)
+  public synchronized void load() {
+    RouteColumns.Builder builder = new RouteColumns.Builder(null);
+
+    Date first = routeRepository.findFirstDate();
+    Date last = routeRepository.findLastDate();
+
+    if (first != null && last != null)
+      append(builder, days.epochDayOf(first.getTime()), days.epochDayOf(last.getTime()));
+
+    columns = builder.build();
+
+    LOG.info("Loaded {} routes into columns", columns.size());
+  }
+
+  /**
+   * Refresh the days touched by a write of routes.
+   *
+   * @param event of the write
+   */
+  @EventListener
+  @Order(0)
+  @Transactional(readOnly = true)
+  public synchronized void onRoutesChanged(RoutesChangedEvent event) {
+    if (event.isAll()) {
+      load();
+      return;
+    }
+
+    RouteColumns.Builder builder = new RouteColumns.Builder(columns);
+
+    for (RoutesChangedEvent.Range range : event.getRanges()) {
+      long firstDay = days.epochDayOf(range.getFrom().getTime());
+      long lastDay = days.epochDayOf(range.getTo().getTime());
+
+      builder.removeDays(firstDay, lastDay);
+      append(builder, firstDay, lastDay);
+    }
+
+    columns = builder.build();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<RouteAggregate> aggregate(
+      Date start,
+      Date end,
+      List<String> airlines,
+      List<String> destinations,
+      TimeSteps timestep,
+      QualitiativeValue series) {
+
+    return aggregate(start, end, airlines, destinations, timestep, series, false);
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public void aggregateWithDelayHistograms(
+      Date start,
+      Date end,
+      List<String> airlines,
+      List<String> destinations,
+      TimeSteps timestep,
+      QualitiativeValue series,
+      Consumer<RouteAggregate> consumer) {
+
+    aggregate(start, end, airlines, destinations, timestep, series, true).forEach(consumer);
+  }
+
+  private List<RouteAggregate> aggregate(
+      Date start,
+      Date end,
+      List<String> airlines,
+      List<String> destinations,
+      TimeSteps timestep,
+      QualitiativeValue series,
+      boolean histograms) {
+
+    //Same days as the rollups: days starting within [start, end]
+    long firstDay = days.epochDayOf(start.getTime() - 1) + 1;
+    long lastDay = days.epochDayOf(end.getTime());
+
+    List<RouteAggregate> aggregates = columns.aggregate(
+        firstDay, lastDay, airlines, destinations, DateBuckets.of(timestep), series, histograms);
+
+    //Columns name series by id
+    if (series == QualitiativeValue.AIRLINE) {
+      Map<String, Airline> names = referenceDataCache.resolveAirlines(seriesIds(aggregates));
+      aggregates.forEach(aggregate -> {
+        Airline airline = names.get(aggregate.getSeries());
+        if (airline != null)
+          aggregate.setSeries(airline.getName());
+      });
+    } else if (series == QualitiativeValue.DESTINATION) {
+      Map<String, Market> names = referenceDataCache.resolveMarkets(seriesIds(aggregates));
+      aggregates.forEach(aggregate -> {
+        Market market = names.get(aggregate.getSeries());
+        if (market != null)
+          aggregate.setSeries(market.getName());
+      });
+    }
+
+    return aggregates;
+  }
+
+  /**
+   * Appends all routes of the given days.
+   *
+   * Routes are loaded as plain values, so no entities are bound to the session.
+   *
+   * @param firstDay first local day (included)
+   * @param lastDay  last local day (included)
+   */
+  private void append(RouteColumns.Builder builder, long firstDay, long lastDay) {
+    //Query a day more on each side, as days are cut in local time
+    Date start = new Date(days.middayOf(firstDay - 1));
+    Date end = new Date(days.middayOf(lastDay + 1));
+
+    try (Stream<Object[]> values = routeRepository.streamValues(start, end)) {
+      values.forEach(row -> {
+        long day = days.epochDayOf(((Date) row[0]).getTime());
+        if (day >= firstDay && day <= lastDay)
+          builder.add(
+              day,
+              (String) row[1],
+              (String) row[2],
+              (String) row[3],
+              ((Number) row[4]).doubleValue(),
+              ((Number) row[5]).doubleValue(),
+              ((Number) row[6]).doubleValue(),
+              ((Number) row[7]).doubleValue());
+      });
+    }
+  }
+
+  private static Set<String> seriesIds(List<RouteAggregate> aggregates) {
+    Set<String> ids = new HashSet<>();
+    aggregates.forEach(aggregate -> ids.add(aggregate.getSeries()));
+    return ids;
+  }
+}
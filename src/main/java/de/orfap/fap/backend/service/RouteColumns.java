@@ -0,0 +1,466 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.controller.DateBuckets;
+import de.orfap.fap.backend.domain.DelayHistogram;
+import de.orfap.fap.backend.domain.QualitiativeValue;
+import de.orfap.fap.backend.domain.RouteAggregate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 27.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Immutable snapshot of all routes in primitive columns.
+ *
+ * A route takes 32 bytes: its local day, the dictionary indices of
+ * airline, source and destination and its four values as floats.
+ * Routes are split into chunks of {@value #CHUNK_DAYS} days. Changes build a new snapshot
+ * with a {@link Builder}, which copies only the chunks of the changed days and shares all others,
+ * so readers never lock and a write costs about the routes of its days.
+ */
+public final class RouteColumns {
+
+  static final RouteColumns EMPTY = new Builder(null).build();
+
+  private static final int FLIGHTS = 0;
+  private static final int PASSENGERS = 1;
+  private static final int CANCELLED = 2;
+  private static final int DELAYS = 3;
+  private static final int DELAYED = 4;
+  private static final int ROUTES = 5;
+  private static final int SUMS = 6;
+
+  private static final int CHUNK_DAYS = 32;
+  private static final int CHUNK_SHIFT = 5;
+
+  private final int size;
+
+  /** Chunks with routes by index, see {@link #chunkOf(long)}. */
+  private final NavigableMap<Integer, Chunk> chunks;
+
+  private final Dictionary airlines;
+  private final Dictionary markets;
+
+  /** Range of all days, empty if min is greater than max. */
+  private final int firstStoredDay;
+  private final int lastStoredDay;
+
+  private RouteColumns(NavigableMap<Integer, Chunk> chunks, Dictionary airlines, Dictionary markets) {
+    this.chunks = chunks;
+    this.airlines = airlines;
+    this.markets = markets;
+
+    int rows = 0;
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    for (Chunk chunk : chunks.values()) {
+      rows += chunk.size;
+      min = Math.min(min, chunk.firstDay);
+      max = Math.max(max, chunk.lastDay);
+    }
+    size = rows;
+    firstStoredDay = min;
+    lastStoredDay = max;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Sums up routes by bucket and series.
+   *
+   * @param firstDay     first local day (included)
+   * @param lastDay      last local day (included)
+   * @param airlineIds   to filter. If empty all.
+   * @param destinations to filter. If empty all.
+   * @param buckets      to sum up by
+   * @param series       to group by. Series are named by airline or market id.
+   * @param histograms   true to count the delays of each aggregate in a histogram.
+   * @return one aggregate per series and bucket with a date at noon of a day within the bucket
+   */
+  public List<RouteAggregate> aggregate(
+      long firstDay,
+      long lastDay,
+      Collection<String> airlineIds,
+      Collection<String> destinations,
+      DateBuckets buckets,
+      QualitiativeValue series,
+      boolean histograms) {
+
+    List<RouteAggregate> result = new ArrayList<>();
+
+    //Only days with routes have to be bucketed
+    int minDay = (int) Math.max(firstDay, firstStoredDay);
+    int maxDay = (int) Math.min(lastDay, lastStoredDay);
+    if (maxDay < minDay)
+      return result;
+
+    boolean[] airlineMask = airlines.mask(airlineIds);
+    boolean[] destinationMask = markets.mask(destinations);
+
+    //Bucket of every day in range
+    int[] dayBucket = new int[maxDay - minDay + 1];
+    int minBucket = Integer.MAX_VALUE;
+    int maxBucket = Integer.MIN_VALUE;
+    for (int i = 0; i < dayBucket.length; i++) {
+      dayBucket[i] = buckets.bucketOfDay((long) minDay + i);
+      minBucket = Math.min(minBucket, dayBucket[i]);
+      maxBucket = Math.max(maxBucket, dayBucket[i]);
+    }
+
+    int bucketCount = maxBucket - minBucket + 1;
+    int seriesCount = series == QualitiativeValue.AIRLINE ? airlines.size()
+        : series == QualitiativeValue.DESTINATION ? markets.size() : 1;
+
+    double[] sums = new double[seriesCount * bucketCount * SUMS];
+    DelayHistogram[] delayHistograms = histograms ? new DelayHistogram[seriesCount * bucketCount] : null;
+    int[] firstDayOfBucket = new int[bucketCount];
+    Arrays.fill(firstDayOfBucket, -1);
+
+    //Only chunks of days in range are scanned
+    for (Chunk chunk : chunks.subMap(chunkOf(minDay), true, chunkOf(maxDay), true).values()) {
+      int[] day = chunk.day;
+      int[] airline = chunk.airline;
+      int[] destination = chunk.destination;
+
+      for (int row = 0; row < chunk.size; row++) {
+        int rowDay = day[row];
+        if (rowDay < minDay || rowDay > maxDay)
+          continue;
+        if (airlineMask != null && !airlineMask[airline[row]])
+          continue;
+        if (destinationMask != null && !destinationMask[destination[row]])
+          continue;
+
+        int bucket = dayBucket[rowDay - minDay] - minBucket;
+        int seriesIndex = series == QualitiativeValue.AIRLINE ? airline[row]
+            : series == QualitiativeValue.DESTINATION ? destination[row] : 0;
+
+        int offset = (seriesIndex * bucketCount + bucket) * SUMS;
+        sums[offset + FLIGHTS] += chunk.flightCount[row];
+        sums[offset + PASSENGERS] += chunk.passengerCount[row];
+        sums[offset + CANCELLED] += chunk.cancelled[row];
+        sums[offset + DELAYS] += chunk.delays[row];
+        sums[offset + DELAYED] += chunk.delays[row] > 0 ? 1 : 0;
+        sums[offset + ROUTES] += 1;
+
+        if (histograms) {
+          int cell = seriesIndex * bucketCount + bucket;
+          if (delayHistograms[cell] == null)
+            delayHistograms[cell] = new DelayHistogram();
+          delayHistograms[cell].record(chunk.delays[row]);
+        }
+
+        if (firstDayOfBucket[bucket] < 0 || rowDay - minDay < firstDayOfBucket[bucket])
+          firstDayOfBucket[bucket] = rowDay - minDay;
+      }
+    }
+
+    for (int seriesIndex = 0; seriesIndex < seriesCount; seriesIndex++) {
+      String name = series == QualitiativeValue.AIRLINE ? airlines.id(seriesIndex)
+          : series == QualitiativeValue.DESTINATION ? markets.id(seriesIndex) : "";
+
+      for (int bucket = 0; bucket < bucketCount; bucket++) {
+        int offset = (seriesIndex * bucketCount + bucket) * SUMS;
+        if (sums[offset + ROUTES] == 0)
+          continue;
+
+        result.add(new RouteAggregate(
+            new Date(buckets.middayOf((long) minDay + firstDayOfBucket[bucket])),
+            name,
+            sums[offset + FLIGHTS],
+            sums[offset + PASSENGERS],
+            sums[offset + CANCELLED],
+            sums[offset + DELAYS],
+            (long) sums[offset + DELAYED],
+            (long) sums[offset + ROUTES],
+            histograms ? delayHistograms[seriesIndex * bucketCount + bucket] : null
+        ));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @param day local day
+   * @return index of the chunk holding the day
+   */
+  private static int chunkOf(long day) {
+    return (int) (day >> CHUNK_SHIFT);
+  }
+
+  /**
+   * Builds a new snapshot from an existing one.
+   *
+   * Chunks of the base are shared until a route of their days is removed or added,
+   * then the builder works on a copy of the chunk.
+   */
+  public static final class Builder {
+
+    private final NavigableMap<Integer, Chunk> chunks;
+
+    /** Copies of chunks owned by this builder. */
+    private final Map<Integer, Chunk> changed = new HashMap<>();
+
+    private final Dictionary airlines;
+    private final Dictionary markets;
+
+    /**
+     * @param base snapshot to start with, may be null.
+     */
+    public Builder(RouteColumns base) {
+      if (base == null) {
+        chunks = new TreeMap<>();
+        airlines = new Dictionary();
+        markets = new Dictionary();
+      } else {
+        chunks = new TreeMap<>(base.chunks);
+        airlines = new Dictionary(base.airlines);
+        markets = new Dictionary(base.markets);
+      }
+    }
+
+    /**
+     * Removes all routes of the given days.
+     *
+     * @param firstDay first local day (included)
+     * @param lastDay  last local day (included)
+     * @return this builder
+     */
+    public Builder removeDays(long firstDay, long lastDay) {
+      for (Integer index : new ArrayList<>(chunks.subMap(chunkOf(firstDay), true, chunkOf(lastDay), true).keySet()))
+        change(index).removeDays(firstDay, lastDay);
+      return this;
+    }
+
+    /**
+     * Appends a route.
+     *
+     * @return this builder
+     */
+    public Builder add(
+        long epochDay, String airlineId, String sourceId, String destinationId,
+        double routeDelays, double routeCancelled, double routePassengers, double routeFlights) {
+
+      change(chunkOf(epochDay)).add(
+          (int) epochDay,
+          airlines.indexOf(airlineId),
+          markets.indexOf(sourceId),
+          markets.indexOf(destinationId),
+          (float) routeDelays,
+          (float) routeCancelled,
+          (float) routePassengers,
+          (float) routeFlights);
+      return this;
+    }
+
+    public RouteColumns build() {
+      NavigableMap<Integer, Chunk> built = new TreeMap<>(chunks);
+      changed.forEach((index, chunk) -> {
+        if (chunk.size == 0)
+          built.remove(index);
+        else
+          built.put(index, chunk.trimmed());
+      });
+      return new RouteColumns(built, airlines, markets);
+    }
+
+    /**
+     * @param index of a chunk
+     * @return chunk owned by this builder, a copy of the shared one if any
+     */
+    private Chunk change(int index) {
+      Chunk chunk = changed.get(index);
+      if (chunk == null) {
+        Chunk shared = chunks.get(index);
+        chunk = shared == null ? new Chunk(16) : shared.copy(shared.size + 16);
+        changed.put(index, chunk);
+        chunks.put(index, chunk);
+      }
+      return chunk;
+    }
+  }
+
+  /**
+   * Routes of up to {@value #CHUNK_DAYS} days in primitive columns.
+   * Only changed while owned by a {@link Builder}, never after it is built into a snapshot.
+   */
+  private static final class Chunk {
+
+    private int size;
+
+    private int[] day;
+    private int[] airline;
+    private int[] source;
+    private int[] destination;
+    private float[] delays;
+    private float[] cancelled;
+    private float[] passengerCount;
+    private float[] flightCount;
+
+    /** Range of the days, empty if first is greater than last. */
+    private int firstDay = Integer.MAX_VALUE;
+    private int lastDay = Integer.MIN_VALUE;
+
+    Chunk(int capacity) {
+      day = new int[capacity];
+      airline = new int[capacity];
+      source = new int[capacity];
+      destination = new int[capacity];
+      delays = new float[capacity];
+      cancelled = new float[capacity];
+      passengerCount = new float[capacity];
+      flightCount = new float[capacity];
+    }
+
+    /**
+     * @param capacity of the copy, at least the size
+     * @return copy with the same routes
+     */
+    Chunk copy(int capacity) {
+      Chunk copy = new Chunk(0);
+      copy.size = size;
+      copy.day = Arrays.copyOf(day, capacity);
+      copy.airline = Arrays.copyOf(airline, capacity);
+      copy.source = Arrays.copyOf(source, capacity);
+      copy.destination = Arrays.copyOf(destination, capacity);
+      copy.delays = Arrays.copyOf(delays, capacity);
+      copy.cancelled = Arrays.copyOf(cancelled, capacity);
+      copy.passengerCount = Arrays.copyOf(passengerCount, capacity);
+      copy.flightCount = Arrays.copyOf(flightCount, capacity);
+      copy.firstDay = firstDay;
+      copy.lastDay = lastDay;
+      return copy;
+    }
+
+    Chunk trimmed() {
+      return day.length == size ? this : copy(size);
+    }
+
+    void add(int routeDay, int routeAirline, int routeSource, int routeDestination,
+             float routeDelays, float routeCancelled, float routePassengers, float routeFlights) {
+
+      if (size == day.length)
+        grow();
+
+      day[size] = routeDay;
+      airline[size] = routeAirline;
+      source[size] = routeSource;
+      destination[size] = routeDestination;
+      delays[size] = routeDelays;
+      cancelled[size] = routeCancelled;
+      passengerCount[size] = routePassengers;
+      flightCount[size] = routeFlights;
+      size++;
+
+      firstDay = Math.min(firstDay, routeDay);
+      lastDay = Math.max(lastDay, routeDay);
+    }
+
+    void removeDays(long first, long last) {
+      int kept = 0;
+      firstDay = Integer.MAX_VALUE;
+      lastDay = Integer.MIN_VALUE;
+
+      for (int row = 0; row < size; row++) {
+        if (day[row] >= first && day[row] <= last)
+          continue;
+
+        day[kept] = day[row];
+        airline[kept] = airline[row];
+        source[kept] = source[row];
+        destination[kept] = destination[row];
+        delays[kept] = delays[row];
+        cancelled[kept] = cancelled[row];
+        passengerCount[kept] = passengerCount[row];
+        flightCount[kept] = flightCount[row];
+        firstDay = Math.min(firstDay, day[kept]);
+        lastDay = Math.max(lastDay, day[kept]);
+        kept++;
+      }
+      size = kept;
+    }
+
+    private void grow() {
+      Chunk grown = copy(day.length + (day.length >> 1) + 1);
+      day = grown.day;
+      airline = grown.airline;
+      source = grown.source;
+      destination = grown.destination;
+      delays = grown.delays;
+      cancelled = grown.cancelled;
+      passengerCount = grown.passengerCount;
+      flightCount = grown.flightCount;
+    }
+  }
+
+  /**
+   * Encodes ids as dense indices. Indices are never removed.
+   */
+  private static final class Dictionary {
+
+    private final List<String> ids;
+    private final Map<String, Integer> indices;
+
+    Dictionary() {
+      ids = new ArrayList<>();
+      indices = new HashMap<>();
+    }
+
+    Dictionary(Dictionary base) {
+      ids = new ArrayList<>(base.ids);
+      indices = new HashMap<>(base.indices);
+    }
+
+    int indexOf(String id) {
+      Integer index = indices.get(id);
+      if (index == null) {
+        index = ids.size();
+        ids.add(id);
+        indices.put(id, index);
+      }
+      return index;
+    }
+
+    String id(int index) {
+      return ids.get(index);
+    }
+
+    int size() {
+      return ids.size();
+    }
+
+    /**
+     * @param filter ids to accept
+     * @return flags of accepted indices, null if all are accepted
+     */
+    boolean[] mask(Collection<String> filter) {
+      if (filter == null || filter.isEmpty())
+        return null;
+
+      boolean[] mask = new boolean[ids.size()];
+      for (String id : filter) {
+        Integer index = indices.get(id);
+        if (index != null)
+          mask[index] = true;
+      }
+      return mask;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package de.orfap.fap.backend.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.orfap.fap.backend.domain.Route;
+import de.orfap.fap.backend.repositories.RouteRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 30.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Writes large amounts of routes as JSON with constant memory.
+ *
+ * Routes are read from a database cursor and written one by one.
+ * Every written route is detached, so the persistence context does not grow.
+ */
+@Service
+public class RouteExportService {
+
+  /**
+   * Routes written between two flushes of the output.
+   */
+  private static final int FLUSH_INTERVAL = 500;
+
+  @Autowired
+  RouteRepository routeRepository;
+
+  @Autowired
+  ObjectMapper objectMapper;
+
+  @PersistenceContext
+  EntityManager entityManager;
+
+  /**
+   * Writes all routes within a range as JSON array, ordered by date.
+   *
+   * @param start of range (included)
+   * @param end   of range (excluded)
+   * @param out   to write to. Is flushed, but not closed.
+   * @return number of written routes
+   * @throws IOException if writing failed
+   */
+  @Transactional(readOnly = true)
+  public long write(Date start, Date end, OutputStream out) throws IOException {
+    ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+    long count = 0;
+
+    generator.writeStartArray();
+
+    try (Stream<Route> routes = routeRepository.streamByDateRange(start, end)) {
+      Iterator<Route> iterator = routes.iterator();
+
+      while (iterator.hasNext()) {
+        Route route = iterator.next();
+        writer.writeValue(generator, route);
+        entityManager.detach(route);
+
+        if (++count % FLUSH_INTERVAL == 0)
+          generator.flush();
+      }
+    }
+
+    generator.writeEndArray();
+    generator.flush();
+
+    return count;
+  }
+}
@@ -0,0 +1,86 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.cache.BoundedCache;
+import de.orfap.fap.backend.controller.DateBuckets;
+import de.orfap.fap.backend.controller.FilterAccumulator;
+import de.orfap.fap.backend.controller.FilterResponse;
+import de.orfap.fap.backend.domain.FilterKey;
+import de.orfap.fap.backend.domain.Setting;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Service;
+
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 02.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Computes and caches the filter response of a setting.
+ *
+ * Shared by the synchronous filter and filter jobs, so both fill the same cache.
+ * Concurrent misses of equal settings are coalesced into one computation,
+ * see the flight and coalesced counts of GET /caches.
+ */
+@Service
+public class RouteFilterService {
+
+  @Autowired
+  RouteAggregator routeAggregator;
+
+  @Autowired
+  CacheManager cacheManager;
+
+  /**
+   * Formats routes with a given setting.
+   *
+   * @param setting with axis and filter.
+   * @return formatted data
+   */
+  @Cacheable(value = RouteCacheEvictor.FILTER, key = "T(de.orfap.fap.backend.domain.FilterKey).of(#setting)")
+  public FilterResponse filter(Setting setting) {
+    Cache cache = cacheManager.getCache(RouteCacheEvictor.FILTER);
+
+    //Concurrent misses of equal settings share one computation
+    if (cache instanceof BoundedCache)
+      return ((BoundedCache) cache).coalesce(FilterKey.of(setting), () -> compute(setting));
+
+    return compute(setting);
+  }
+
+  private FilterResponse compute(Setting setting) {
+
+    //SetUp buckets of all dates in range
+    DateBuckets buckets = DateBuckets.of(setting.getFilter().getTimestep());
+    int[] keys = buckets.bucketsBetween(setting.getRangeFrom(), setting.getRangeTo());
+    FilterAccumulator accumulator = new FilterAccumulator(buckets, keys);
+
+    //Let the filter engine sum up the routes in a single pass by series and bucket,
+    //percentiles need their delay histograms, which are merged as they are read
+    if (setting.getAxis().getY() != null && setting.getAxis().getY().isPercentile())
+      routeAggregator.aggregateWithDelayHistograms(
+          setting.getRangeFrom(),
+          setting.getRangeTo(),
+          setting.getFilter().getAirlines(),
+          setting.getFilter().getDestinations(),
+          setting.getFilter().getTimestep(),
+          setting.getAxis().getX(),
+          accumulator::add);
+    else
+      accumulator.addAll(routeAggregator.aggregate(
+          setting.getRangeFrom(),
+          setting.getRangeTo(),
+          setting.getFilter().getAirlines(),
+          setting.getFilter().getDestinations(),
+          setting.getFilter().getTimestep(),
+          setting.getAxis().getX()));
+
+    return accumulator.toResponse(setting.getAxis().getY(), setting.getAxis().getX());
+  }
+}
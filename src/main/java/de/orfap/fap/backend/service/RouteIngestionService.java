@@ -0,0 +1,532 @@
+package de.orfap.fap.backend.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.orfap.fap.backend.controller.RouteRequest;
+import de.orfap.fap.backend.domain.Airline;
+import de.orfap.fap.backend.domain.Market;
+import de.orfap.fap.backend.domain.Route;
+import de.orfap.fap.backend.event.RoutesChangedEvent;
+import de.orfap.fap.backend.repositories.RouteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Validator;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 20.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Saves large amounts of routes with constant memory.
+ *
+ * Routes are validated one by one and persisted in chunks, each in its own transaction.
+ * After every chunk the persistence context is flushed and cleared,
+ * so no saved route stays in memory.
+ *
+ * Upserts look up the keys of a chunk in a {@link RouteKeyIndex} of the saved routes of its days,
+ * so replaying an upload writes nothing and refreshes no derived data. Upserts run one at a time,
+ * so two uploads of the same days never both insert a key.
+ */
+@Service
+public class RouteIngestionService {
+
+  public static final Logger LOG = LoggerFactory.getLogger(RouteIngestionService.class);
+
+  /**
+   * Maximum number of rejection reasons reported back.
+   */
+  private static final int MAX_REPORTED_ERRORS = 100;
+
+  @Autowired
+  ReferenceDataCache referenceDataCache;
+
+  @Autowired
+  Validator validator;
+
+  @Autowired
+  ObjectMapper objectMapper;
+
+  @Autowired
+  ApplicationEventPublisher publisher;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  @PersistenceContext
+  EntityManager entityManager;
+
+  @Autowired
+  RouteRepository routeRepository;
+
+  @Value("${fap.ingest.chunk-size:1000}")
+  int chunkSize;
+
+  /**
+   * Days of saved route keys kept by an upsert.
+   */
+  @Value("${fap.ingest.upsert-days:31}")
+  int upsertDays;
+
+  /**
+   * Seconds an upsert waits for a running one, before it is rejected.
+   */
+  @Value("${fap.ingest.upsert-wait-seconds:10}")
+  long upsertWaitSeconds;
+
+  /**
+   * Lets one upsert run at once, until it is finished.
+   */
+  private final Semaphore upserts = new Semaphore(1);
+
+  /**
+   * Saves routes given as JSON array.
+   *
+   * The array is parsed incrementally, so it is never held in memory as a whole.
+   *
+   * @param json stream of a JSON array of routes.
+   * @return summary of the ingestion.
+   * @throws IOException if the stream could not be read or is no JSON array.
+   */
+  public IngestionResult ingest(InputStream json) throws IOException {
+    return ingest(json, IngestionMode.INSERT);
+  }
+
+  /**
+   * Saves routes given as JSON array.
+   *
+   * The array is parsed incrementally, so it is never held in memory as a whole.
+   *
+   * @param json stream of a JSON array of routes.
+   * @param mode of saving routes with the key of a saved route.
+   * @return summary of the ingestion.
+   * @throws IOException if the stream could not be read or is no JSON array.
+   */
+  public IngestionResult ingest(InputStream json, IngestionMode mode) throws IOException {
+    Ingestion ingestion = new Ingestion(mode);
+
+    try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+
+      if (parser.nextToken() != JsonToken.START_ARRAY)
+        throw new IllegalArgumentException("Expected a JSON array of routes.");
+
+      JsonToken token;
+      while ((token = nextElement(parser)) != JsonToken.END_ARRAY) {
+        if (token != JsonToken.START_OBJECT) {
+          parser.skipChildren();
+          ingestion.reject("Expected a route object, but found " + token);
+          continue;
+        }
+
+        //Read one element at once, so a broken route does not break the parser
+        JsonNode node = objectMapper.readTree(parser);
+
+        try {
+          ingestion.add(objectMapper.treeToValue(node, RouteRequest.class));
+        } catch (JsonProcessingException e) {
+          ingestion.reject(e.getOriginalMessage());
+        }
+      }
+
+    } finally {
+      ingestion.finish();
+    }
+
+    return ingestion.getResult();
+  }
+
+  /**
+   * @return start of the next element or the end of the array
+   * @throws IllegalArgumentException if the stream ends before the array
+   */
+  private static JsonToken nextElement(JsonParser parser) throws IOException {
+    JsonToken token;
+    try {
+      token = parser.nextToken();
+    } catch (JsonParseException e) {
+      throw new IllegalArgumentException("Expected a JSON array of routes: " + e.getOriginalMessage(), e);
+    }
+
+    if (token == null)
+      throw new IllegalArgumentException("Expected a JSON array of routes, but it is not closed.");
+    return token;
+  }
+
+  /**
+   * Saves routes already in memory in chunks.
+   *
+   * @param requests routes to save.
+   * @return summary of the ingestion.
+   */
+  public IngestionResult ingest(Iterable<RouteRequest> requests) {
+    return ingest(requests, IngestionMode.INSERT);
+  }
+
+  /**
+   * Saves routes already in memory in chunks.
+   *
+   * @param requests routes to save.
+   * @param mode     of saving routes with the key of a saved route.
+   * @return summary of the ingestion.
+   */
+  public IngestionResult ingest(Iterable<RouteRequest> requests, IngestionMode mode) {
+    Ingestion ingestion = new Ingestion(mode);
+
+    try {
+      requests.forEach(ingestion::add);
+    } finally {
+      ingestion.finish();
+    }
+
+    return ingestion.getResult();
+  }
+
+  /**
+   * Starts an ingestion fed route by route, e.g. by a parser of another format.
+   * The caller has to finish it in a finally block, an unfinished upsert blocks all others.
+   *
+   * @param mode of saving routes with the key of a saved route.
+   * @return running ingestion.
+   * @throws RejectedExecutionException if another upsert is still running after the wait.
+   */
+  public Ingestion begin(IngestionMode mode) {
+    return new Ingestion(mode);
+  }
+
+  /**
+   * Resolves references of a requested route.
+   *
+   * @param request      route to resolve.
+   * @param airlines     resolved airlines by id.
+   * @param markets      resolved markets by id.
+   * @return route ready to save.
+   * @throws IllegalArgumentException if a reference can not be found.
+   */
+  Route toRoute(RouteRequest request, Map<String, Airline> airlines, Map<String, Market> markets) {
+
+    Airline airline = airlines.get(request.getAirline());
+    Market source = markets.get(request.getSource());
+    Market destination = markets.get(request.getDestination());
+
+    if (airline == null || source == null || destination == null) {
+      StringBuilder sb = new StringBuilder("Cant find: ");
+
+      if (airline == null)
+        sb.append("\nAirline with ID: ").append(request.getAirline());
+      if (source == null)
+        sb.append("\nMarket with ID: ").append(request.getSource());
+      if (destination == null)
+        sb.append("\nMarket with ID: ").append(request.getDestination());
+
+      throw new IllegalArgumentException(sb.toString());
+    }
+
+    return new Route(
+        request.getDate(),
+        request.getDelays(),
+        request.getCancelled(),
+        request.getPassengerCount(),
+        request.getFlightCount(),
+        airline,
+        source,
+        destination
+    );
+  }
+
+  /**
+   * State of one running ingestion.
+   */
+  public class Ingestion {
+
+    private final IngestionMode mode;
+
+    /**
+     * Saved routes by key, on upserts only.
+     */
+    private final RouteKeyIndex keys;
+
+    private final List<RouteRequest> pending = new ArrayList<>(chunkSize);
+
+    private final List<String> errors = new ArrayList<>();
+
+    private long index = 0;
+
+    private long accepted = 0;
+
+    private long rejected = 0;
+
+    private long updated = 0;
+
+    private long unchanged = 0;
+
+    /**
+     * Days written so far, null if none.
+     */
+    private RoutesChangedEvent changes;
+
+    private boolean finished;
+
+    Ingestion(IngestionMode mode) {
+      this.mode = mode;
+      this.keys = mode == IngestionMode.UPSERT
+          ? new RouteKeyIndex(upsertDays, routeRepository::findKeys)
+          : null;
+
+      //Keys loaded by one upsert are not updated by others
+      if (keys != null && !acquireUpsert())
+        throw new RejectedExecutionException(
+            "Another upsert is running for more than " + upsertWaitSeconds + " seconds, try again later.");
+    }
+
+    private boolean acquireUpsert() {
+      try {
+        return upserts.tryAcquire(upsertWaitSeconds, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    /**
+     * Adds a route, persisted with its chunk.
+     *
+     * @param request route to save.
+     */
+    public void add(RouteRequest request) {
+      index++;
+      pending.add(request);
+
+      if (pending.size() >= chunkSize)
+        flush();
+    }
+
+    /**
+     * Counts a route which could not be read.
+     *
+     * @param reason of the rejection.
+     */
+    public void reject(String reason) {
+      index++;
+      reject(index, reason);
+    }
+
+    private void reject(long position, String reason) {
+      rejected++;
+
+      if (errors.size() < MAX_REPORTED_ERRORS)
+        errors.add("Route " + position + ": " + reason);
+    }
+
+    /**
+     * Resolves, validates and persists the pending routes in one transaction.
+     */
+    void flush() {
+      if (pending.isEmpty())
+        return;
+
+      //Resolve all references of the chunk at once
+      Set<String> airlineIds = new HashSet<>();
+      Set<String> marketIds = new HashSet<>();
+      for (RouteRequest request : pending) {
+        airlineIds.add(request.getAirline());
+        marketIds.add(request.getSource());
+        marketIds.add(request.getDestination());
+      }
+      Map<String, Airline> airlines = referenceDataCache.resolveAirlines(airlineIds);
+      Map<String, Market> markets = referenceDataCache.resolveMarkets(marketIds);
+
+      List<Route> chunk = new ArrayList<>(pending.size());
+      List<Long> positions = new ArrayList<>(pending.size());
+      long position = index - pending.size();
+
+      for (RouteRequest request : pending) {
+        position++;
+
+        Route route;
+        try {
+          route = toRoute(request, airlines, markets);
+        } catch (IllegalArgumentException e) {
+          reject(position, e.getMessage());
+          continue;
+        }
+
+        BeanPropertyBindingResult bindingResult = new BeanPropertyBindingResult(route, "route");
+        validator.validate(route, bindingResult);
+
+        if (bindingResult.hasErrors()) {
+          reject(position, bindingResult.getAllErrors().toString());
+        } else {
+          chunk.add(route);
+          positions.add(position);
+        }
+      }
+
+      pending.clear();
+
+      if (!chunk.isEmpty())
+        persist(chunk, positions);
+    }
+
+    private void persist(List<Route> chunk, List<Long> positions) {
+      long[] counts = new long[2];
+      Map<Long, String> rejections = new LinkedHashMap<>();
+
+      try {
+        List<Route> written = new TransactionTemplate(transactionManager).execute(status -> {
+          List<Route> changed = keys == null ? insert(chunk) : upsert(chunk, positions, counts, rejections);
+          entityManager.flush();
+          entityManager.clear();
+          return changed;
+        });
+
+        accepted += chunk.size() - rejections.size();
+        updated += counts[0];
+        unchanged += counts[1];
+        rejections.forEach(this::reject);
+
+        //Unchanged routes need no refresh of derived data
+        RoutesChangedEvent changed = RoutesChangedEvent.of(written);
+        if (changed != null)
+          changes = changes == null ? changed : changes.and(changed);
+
+      } catch (RuntimeException e) {
+        LOG.error("Could not save chunk of {} routes", chunk.size(), e);
+        rejected += chunk.size();
+
+        //Keys of the rolled back routes are gone
+        if (keys != null)
+          keys.forget(chunk);
+
+        if (errors.size() < MAX_REPORTED_ERRORS)
+          errors.add(chunk.size() + " routes up to route " + index + ": " + e.getMessage());
+      }
+    }
+
+    private List<Route> insert(List<Route> chunk) {
+      chunk.forEach(entityManager::persist);
+      return chunk;
+    }
+
+    /**
+     * Inserts new keys and updates saved routes of known keys.
+     *
+     * A key is written at most once per ingestion. Repeated keys of the input and keys of
+     * several saved routes are rejected, as replacing them would change the aggregates.
+     *
+     * @param chunk      routes to save.
+     * @param positions  of the routes in the input.
+     * @param counts     to count updated and unchanged routes in.
+     * @param rejections to add rejected positions and reasons to.
+     * @return inserted and updated routes.
+     */
+    private List<Route> upsert(
+        List<Route> chunk, List<Long> positions, long[] counts, Map<Long, String> rejections) {
+
+      keys.cover(chunk);
+
+      List<Route> written = new ArrayList<>(chunk.size());
+      for (int i = 0; i < chunk.size(); i++) {
+        Route route = chunk.get(i);
+
+        if (keys.hasLeft(route)) {
+          rejections.put(positions.get(i), "Day was upserted before and is no longer held, "
+              + "upload routes sorted by date or raise fap.ingest.upsert-days");
+          continue;
+        }
+
+        RouteKeyIndex.Saved saved = keys.get(route);
+        if (saved != null && saved.ambiguous) {
+          rejections.put(positions.get(i), "Several saved routes have this date, airline, source and destination");
+          continue;
+        }
+        if (saved != null && saved.seen) {
+          rejections.put(positions.get(i), "Same date, airline, source and destination as an earlier route");
+          continue;
+        }
+
+        if (saved != null && saved.sameValues(route)) {
+          saved.seen = true;
+          counts[1]++;
+          continue;
+        }
+
+        //Saved routes may be deleted meanwhile
+        Route existing = saved == null ? null : entityManager.find(Route.class, saved.oid);
+
+        if (existing == null) {
+          entityManager.persist(route);
+          keys.put(route);
+          written.add(route);
+        } else {
+          existing.setDelays(route.getDelays());
+          existing.setCancelled(route.getCancelled());
+          existing.setPassengerCount(route.getPassengerCount());
+          existing.setFlightCount(route.getFlightCount());
+          saved.setValues(route);
+          saved.seen = true;
+          written.add(existing);
+          counts[0]++;
+        }
+      }
+      return written;
+    }
+
+    /**
+     * Persists the remaining routes and announces all written days at once,
+     * so derived data is refreshed only once per ingestion.
+     */
+    public void finish() {
+      try {
+        flush();
+
+        if (changes != null)
+          publisher.publishEvent(changes);
+      } finally {
+        if (keys != null && !finished)
+          upserts.release();
+        finished = true;
+      }
+
+      LOG.info("Ingested routes: {} accepted, {} updated, {} unchanged, {} rejected",
+          accepted, updated, unchanged, rejected);
+    }
+
+    public IngestionResult getResult() {
+      return IngestionResult.builder()
+          .accepted(accepted)
+          .updated(updated)
+          .unchanged(unchanged)
+          .rejected(rejected)
+          .errors(errors)
+          .build();
+    }
+  }
+}
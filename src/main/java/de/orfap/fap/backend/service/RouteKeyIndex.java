@@ -0,0 +1,260 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.domain.Route;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 07.07.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Saved routes of some local days by their natural key, used by upserts.
+ *
+ * Days are loaded with one query per run of missing days. At most maxDays days are kept,
+ * the days farthest from the requested ones are dropped first. Uploads are mostly sorted
+ * by date, so the next chunk mostly needs the days of the previous one or new days.
+ *
+ * Keys saved several times are marked ambiguous, keys written or confirmed by the
+ * ingestion are marked seen. Days dropped with seen keys are remembered as left,
+ * as their keys could not be told apart from other saved keys anymore.
+ */
+final class RouteKeyIndex {
+
+  private final int maxDays;
+
+  /**
+   * Loads the keys and values of saved routes between start (included) and end (excluded).
+   * Columns: oid, date, airline id, source id, destination id, delays, cancelled, passengers, flights.
+   */
+  private final BiFunction<Date, Date, List<Object[]>> loader;
+
+  private final TreeMap<Long, Map<Key, Saved>> days = new TreeMap<>();
+
+  /**
+   * Days dropped after a key of them was seen.
+   */
+  private final Set<Long> left = new HashSet<>();
+
+  private final Calendar calendar = new GregorianCalendar();
+
+  RouteKeyIndex(int maxDays, BiFunction<Date, Date, List<Object[]>> loader) {
+    this.maxDays = maxDays;
+    this.loader = loader;
+  }
+
+  /**
+   * Loads all days of the routes, which are not loaded yet.
+   *
+   * @param routes to look up
+   */
+  void cover(List<Route> routes) {
+    if (routes.isEmpty())
+      return;
+
+    SortedSet<Long> wanted = new TreeSet<>();
+    routes.forEach(route -> wanted.add(dayOf(route.getDate().getTime())));
+    wanted.removeAll(left);
+    if (wanted.isEmpty())
+      return;
+
+    //Load runs of consecutive missing days at once
+    List<Long> run = new ArrayList<>();
+    for (long day : wanted) {
+      if (days.containsKey(day))
+        continue;
+      if (!run.isEmpty() && nextDay(run.get(run.size() - 1)) != day) {
+        load(run);
+        run.clear();
+      }
+      run.add(day);
+    }
+    if (!run.isEmpty())
+      load(run);
+
+    while (days.size() > maxDays && days.firstKey() < wanted.first())
+      drop(days.firstKey());
+    while (days.size() > maxDays && days.lastKey() > wanted.last())
+      drop(days.lastKey());
+  }
+
+  /**
+   * @param route to look up
+   * @return true if the day of the route was dropped after a key of it was seen
+   */
+  boolean hasLeft(Route route) {
+    return left.contains(dayOf(route.getDate().getTime()));
+  }
+
+  /**
+   * @param route to look up, its day has to be covered
+   * @return saved route with the same key or null
+   */
+  Saved get(Route route) {
+    Map<Key, Saved> day = days.get(dayOf(route.getDate().getTime()));
+    return day == null ? null : day.get(Key.of(route));
+  }
+
+  /**
+   * Adds a route saved by the ingestion after its day was loaded, as seen.
+   *
+   * @param route saved with oid
+   */
+  void put(Route route) {
+    Map<Key, Saved> day = days.get(dayOf(route.getDate().getTime()));
+    if (day != null) {
+      Saved saved = new Saved(route.getOid(),
+          route.getDelays(), route.getCancelled(), route.getPassengerCount(), route.getFlightCount());
+      saved.seen = true;
+      day.put(Key.of(route), saved);
+    }
+  }
+
+  /**
+   * Forgets the days of routes, e.g. after a rollback.
+   *
+   * @param routes of the days to forget
+   */
+  void forget(List<Route> routes) {
+    routes.forEach(route -> drop(dayOf(route.getDate().getTime())));
+  }
+
+  private void drop(long day) {
+    Map<Key, Saved> dropped = days.remove(day);
+    if (dropped != null && dropped.values().stream().anyMatch(saved -> saved.seen))
+      left.add(day);
+  }
+
+  private void load(List<Long> run) {
+    run.forEach(day -> days.put(day, new HashMap<>()));
+
+    Date start = new Date(run.get(0));
+    Date end = new Date(nextDay(run.get(run.size() - 1)));
+
+    for (Object[] row : loader.apply(start, end)) {
+      long date = ((Date) row[1]).getTime();
+      Map<Key, Saved> day = days.get(dayOf(date));
+      if (day == null)
+        continue;
+
+      Saved saved = new Saved(
+          (UUID) row[0],
+          ((Number) row[5]).doubleValue(),
+          ((Number) row[6]).doubleValue(),
+          ((Number) row[7]).doubleValue(),
+          ((Number) row[8]).doubleValue());
+
+      //Several saved routes of one key can not be replaced by one route
+      Saved other = day.putIfAbsent(new Key(date, (String) row[2], (String) row[3], (String) row[4]), saved);
+      if (other != null)
+        other.ambiguous = true;
+    }
+  }
+
+  /**
+   * @return start of the local day of a moment
+   */
+  private long dayOf(long millis) {
+    calendar.setTimeInMillis(millis);
+    calendar.set(Calendar.HOUR_OF_DAY, 0);
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    return calendar.getTimeInMillis();
+  }
+
+  private long nextDay(long day) {
+    calendar.setTimeInMillis(day);
+    calendar.add(Calendar.DAY_OF_MONTH, 1);
+    return calendar.getTimeInMillis();
+  }
+
+  /**
+   * Natural key of a route.
+   */
+  @Value
+  static class Key {
+
+    long date;
+
+    String airline;
+
+    String source;
+
+    String destination;
+
+    static Key of(Route route) {
+      return new Key(
+          route.getDate().getTime(),
+          route.getAirline().getId(),
+          route.getSource().getId(),
+          route.getDestination().getId());
+    }
+  }
+
+  /**
+   * Oid and values of a saved route.
+   */
+  static final class Saved {
+
+    final UUID oid;
+
+    double delays;
+
+    double cancelled;
+
+    double passengerCount;
+
+    double flightCount;
+
+    /**
+     * True if several saved routes have this key.
+     */
+    boolean ambiguous;
+
+    /**
+     * True if written or confirmed by the ingestion.
+     */
+    boolean seen;
+
+    Saved(UUID oid, double delays, double cancelled, double passengerCount, double flightCount) {
+      this.oid = oid;
+      this.delays = delays;
+      this.cancelled = cancelled;
+      this.passengerCount = passengerCount;
+      this.flightCount = flightCount;
+    }
+
+    boolean sameValues(Route route) {
+      return Double.compare(delays, route.getDelays()) == 0
+          && Double.compare(cancelled, route.getCancelled()) == 0
+          && Double.compare(passengerCount, route.getPassengerCount()) == 0
+          && Double.compare(flightCount, route.getFlightCount()) == 0;
+    }
+
+    void setValues(Route route) {
+      delays = route.getDelays();
+      cancelled = route.getCancelled();
+      passengerCount = route.getPassengerCount();
+      flightCount = route.getFlightCount();
+    }
+  }
+}
@@ -0,0 +1,337 @@
+package de.orfap.fap.backend.service;
+
+import de.orfap.fap.backend.domain.Airline;
+import de.orfap.fap.backend.domain.DelayHistogram;
+import de.orfap.fap.backend.domain.Market;
+import de.orfap.fap.backend.domain.RouteRollup;
+import de.orfap.fap.backend.event.RoutesChangedEvent;
+import de.orfap.fap.backend.repositories.RouteRepository;
+import de.orfap.fap.backend.repositories.RouteRollupRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Organization: HM FK07.
+ * Project: FAPBackend, de.orfap.fap.backend.service
+ * Author(s): Rene Zarwel
+ * Date: 14.06.16
+ * OS: MacOS 10.11
+ * Java-Version: 1.8
+ * System: 2,3 GHz Intel Core i7, 16 GB 1600 MHz DDR3
+ *
+ * Keeps the daily route rollups in sync with the routes.
+ *
+ * Every write of routes recomputes the rollups of the touched days
+ * with a single grouped query, so updates and deletes are handled the same way.
+ * Delay histograms are built of a second query, counting routes per delay.
+ *
+ * Refreshes of the same day are serialized until the write commits, otherwise
+ * concurrent writes both delete and insert the rollups of a day and break its unique key.
+ */
+@Service
+public class RouteRollupService {
+
+  public static final Logger LOG = LoggerFactory.getLogger(RouteRollupService.class);
+
+  private static final int LOCK_STRIPES = 64;
+
+  @Autowired
+  RouteRepository routeRepository;
+
+  @Autowired
+  RouteRollupRepository routeRollupRepository;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  @PersistenceContext
+  EntityManager entityManager;
+
+  /**
+   * Locks of days, a day is locked by its stripe until the refreshing transaction completes.
+   */
+  private final ReentrantLock[] dayLocks = new ReentrantLock[LOCK_STRIPES];
+
+  /**
+   * Waiting for days out of order may deadlock, so it gives up after this time.
+   */
+  @Value("${fap.rollup.lock-timeout-seconds:30}")
+  long lockTimeoutSeconds;
+
+  public RouteRollupService() {
+    for (int stripe = 0; stripe < LOCK_STRIPES; stripe++)
+      dayLocks[stripe] = new ReentrantLock();
+  }
+
+  /**
+   * Refresh rollups touched by a write of routes.
+   *
+   * @param event of the write
+   */
+  @EventListener
+  @Order(0)
+  public void onRoutesChanged(RoutesChangedEvent event) {
+    if (event.isAll()) {
+      rebuild();
+      return;
+    }
+
+    //A joined transaction holds the days of all ranges until it commits, so lock them in order at once
+    if (TransactionSynchronizationManager.isActualTransactionActive()) {
+      BitSet stripes = new BitSet(LOCK_STRIPES);
+      event.getRanges().forEach(range -> stripes.or(stripesBetween(range.getFrom(), range.getTo())));
+      lockDays(stripes);
+    }
+
+    event.getRanges().forEach(range -> refresh(range.getFrom(), range.getTo()));
+  }
+
+  /**
+   * Build rollups on startup, if there are routes without rollups or rollups without histograms.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void onStartup() {
+    if (routeRollupRepository.count() == 0 && routeRepository.count() > 0) {
+      LOG.info("No route rollups found. Building them from routes.");
+      rebuild();
+    } else if (routeRollupRepository.countByDelayHistogramIsNull() > 0) {
+      LOG.info("Route rollups without delay histograms found. Building them again.");
+      rebuild();
+    }
+  }
+
+  /**
+   * Drop all rollups and compute them again from all routes, month by month.
+   */
+  public void rebuild() {
+    new TransactionTemplate(transactionManager).execute(status -> {
+      lockDays(allStripes());
+      routeRollupRepository.purge();
+      return null;
+    });
+
+    Date first = routeRepository.findFirstDate();
+    Date last = routeRepository.findLastDate();
+
+    if (first != null && last != null)
+      refresh(first, last);
+  }
+
+  /**
+   * Recompute all rollups of the days in the given range.
+   *
+   * The range is refreshed month by month, each month in its own transaction
+   * unless the refresh joins the transaction of a write.
+   *
+   * @param from first day to refresh (included)
+   * @param to   last day to refresh (included)
+   */
+  public void refresh(Date from, Date to) {
+    Date start = startOfDay(from, 0);
+    Date end = startOfDay(to, 1);
+
+    //A joined transaction holds all months until it commits, so all days are locked in order at once
+    if (TransactionSynchronizationManager.isActualTransactionActive())
+      lockDays(stripesBetween(start, end));
+
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    int refreshed = 0;
+    for (Date sliceStart = start; sliceStart.before(end); ) {
+      Date sliceEnd = startOfNextMonth(sliceStart);
+      if (sliceEnd.after(end))
+        sliceEnd = end;
+
+      Date first = sliceStart;
+      Date last = sliceEnd;
+      refreshed += transaction.execute(status -> refreshSlice(first, last));
+      sliceStart = sliceEnd;
+    }
+
+    LOG.debug("Refreshed {} rollups between {} and {}", refreshed, start, end);
+  }
+
+  /**
+   * Recompute the rollups of a slice of days. Saved rollups are flushed and detached,
+   * so the persistence context never holds more than a slice.
+   *
+   * @param start of the first day (included)
+   * @param end   of the last day (excluded)
+   * @return number of rollups
+   */
+  private int refreshSlice(Date start, Date end) {
+    lockDays(stripesBetween(start, end));
+    routeRollupRepository.deleteByDateRange(start, end);
+
+    //Histograms by year, month, day, airline and destination
+    Map<List<Object>, DelayHistogram> histograms = new HashMap<>();
+    for (Object[] row : routeRepository.countDelaysByDay(start, end))
+      histograms.computeIfAbsent(Arrays.asList(row).subList(0, 5), key -> new DelayHistogram())
+          .record(((Number) row[5]).doubleValue(), ((Number) row[6]).longValue());
+
+    List<RouteRollup> rollups = new ArrayList<>();
+    Calendar calendar = Calendar.getInstance(Locale.US);
+
+    for (Object[] row : routeRepository.sumByDay(start, end)) {
+      DelayHistogram histogram = histograms.get(Arrays.asList(row).subList(0, 5));
+
+      calendar.clear();
+      calendar.set(
+          ((Number) row[0]).intValue(),
+          ((Number) row[1]).intValue() - 1,
+          ((Number) row[2]).intValue());
+
+      rollups.add(RouteRollup.builder()
+          .date(calendar.getTime())
+          .airline(entityManager.getReference(Airline.class, row[3]))
+          .destination(entityManager.getReference(Market.class, row[4]))
+          .flightCount(((Number) row[5]).doubleValue())
+          .passengerCount(((Number) row[6]).doubleValue())
+          .cancelled(((Number) row[7]).doubleValue())
+          .delays(((Number) row[8]).doubleValue())
+          .delayedCount(((Number) row[9]).longValue())
+          .routeCount(((Number) row[10]).longValue())
+          .delayHistogram((histogram == null ? new DelayHistogram() : histogram).encode())
+          .build());
+    }
+
+    routeRollupRepository.save(rollups);
+    entityManager.flush();
+    rollups.forEach(entityManager::detach);
+
+    return rollups.size();
+  }
+
+  /**
+   * Locks the given stripes of days until the current transaction completes.
+   * Stripes are locked in ascending order. A stripe below one already held by the transaction
+   * may be held by a transaction waiting for ours, so it is only awaited for a while.
+   *
+   * @param stripes to lock
+   */
+  private void lockDays(BitSet stripes) {
+    BitSet held = heldStripes();
+    int highest = held.length() - 1;
+
+    for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+      if (held.get(stripe))
+        continue;
+
+      if (stripe > highest) {
+        dayLocks[stripe].lock();
+      } else if (!tryLock(dayLocks[stripe])) {
+        throw new CannotAcquireLockException("Rollups of concurrently written days could not be locked in "
+            + lockTimeoutSeconds + " seconds, write the routes again");
+      }
+      held.set(stripe);
+    }
+  }
+
+  private boolean tryLock(ReentrantLock lock) {
+    try {
+      return lock.tryLock(lockTimeoutSeconds, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Stripes locked by the current transaction, unlocked as it completes.
+   */
+  private BitSet heldStripes() {
+    BitSet held = (BitSet) TransactionSynchronizationManager.getResource(dayLocks);
+    if (held != null)
+      return held;
+
+    BitSet stripes = new BitSet(LOCK_STRIPES);
+    TransactionSynchronizationManager.bindResource(dayLocks, stripes);
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+      @Override
+      public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResource(dayLocks);
+        for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1))
+          dayLocks[stripe].unlock();
+      }
+    });
+    return stripes;
+  }
+
+  private static BitSet allStripes() {
+    BitSet stripes = new BitSet(LOCK_STRIPES);
+    stripes.set(0, LOCK_STRIPES);
+    return stripes;
+  }
+
+  /**
+   * @param start of the first day (included)
+   * @param end   of the last day (excluded)
+   * @return stripes of all days in between
+   */
+  private static BitSet stripesBetween(Date start, Date end) {
+    BitSet stripes = new BitSet(LOCK_STRIPES);
+    Calendar calendar = Calendar.getInstance(Locale.US);
+    calendar.setTime(start);
+
+    while (calendar.getTime().before(end) && stripes.cardinality() < LOCK_STRIPES) {
+      int day = calendar.get(Calendar.YEAR) * 366 + calendar.get(Calendar.DAY_OF_YEAR);
+      stripes.set(day % LOCK_STRIPES);
+      calendar.add(Calendar.DAY_OF_MONTH, 1);
+    }
+    return stripes;
+  }
+
+  /**
+   * @param date start of a day
+   * @return start of the first day of the following month
+   */
+  private static Date startOfNextMonth(Date date) {
+    Calendar calendar = Calendar.getInstance(Locale.US);
+    calendar.setTime(date);
+    calendar.set(Calendar.DAY_OF_MONTH, 1);
+    calendar.add(Calendar.MONTH, 1);
+    return calendar.getTime();
+  }
+
+  /**
+   * Truncates a date to the start of its day.
+   *
+   * @param date       to truncate
+   * @param offsetDays days to add after truncation
+   * @return start of day
+   */
+  private static Date startOfDay(Date date, int offsetDays) {
+    Calendar calendar = Calendar.getInstance(Locale.US);
+    calendar.setTime(date);
+    calendar.set(Calendar.HOUR_OF_DAY, 0);
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    calendar.add(Calendar.DAY_OF_MONTH, offsetDays);
+    return calendar.getTime();
+  }
+}
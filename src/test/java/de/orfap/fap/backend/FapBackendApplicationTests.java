@@ -1,15 +1,49 @@
 package de.orfap.fap.backend;
 
+import de.orfap.fap.backend.cache.CacheStatistics;
+import de.orfap.fap.backend.cache.SingleFlight;
+import de.orfap.fap.backend.controller.CacheController;
+import de.orfap.fap.backend.controller.DateBuckets;
 import de.orfap.fap.backend.controller.DateNormalizer;
+import de.orfap.fap.backend.controller.EncodedFilterResponses;
+import de.orfap.fap.backend.controller.FilterAccumulator;
+import de.orfap.fap.backend.controller.FilterResponse;
+import de.orfap.fap.backend.controller.FilterResponseConverter;
 import de.orfap.fap.backend.controller.RouteController;
+import de.orfap.fap.backend.controller.RoutePage;
 import de.orfap.fap.backend.domain.Airline;
+import de.orfap.fap.backend.domain.Axis;
+import de.orfap.fap.backend.domain.DelayHistogram;
+import de.orfap.fap.backend.domain.Filter;
+import de.orfap.fap.backend.domain.FilterKey;
 import de.orfap.fap.backend.domain.Market;
+import de.orfap.fap.backend.domain.QualitiativeValue;
 import de.orfap.fap.backend.domain.QuantitiveValue;
 import de.orfap.fap.backend.domain.Route;
+import de.orfap.fap.backend.domain.RouteAggregate;
+import de.orfap.fap.backend.domain.Setting;
 import de.orfap.fap.backend.domain.TimeSteps;
 import de.orfap.fap.backend.repositories.AirlineRepository;
 import de.orfap.fap.backend.repositories.MarketRepository;
+import de.orfap.fap.backend.event.RoutesChangedEvent;
 import de.orfap.fap.backend.repositories.RouteRepository;
+import de.orfap.fap.backend.repositories.SettingRepository;
+import de.orfap.fap.backend.service.CsvColumns;
+import de.orfap.fap.backend.service.CsvRouteImporter;
+import de.orfap.fap.backend.service.FilterCacheWarmer;
+import de.orfap.fap.backend.service.FilterJobService;
+import de.orfap.fap.backend.service.FilterJobStatus;
+import de.orfap.fap.backend.service.IngestionMode;
+import de.orfap.fap.backend.service.IngestionResult;
+import de.orfap.fap.backend.service.ReferenceDataCache;
+import de.orfap.fap.backend.service.RouteCacheEvictor;
+import de.orfap.fap.backend.service.RouteAggregator;
+import de.orfap.fap.backend.service.RouteColumnStore;
+import de.orfap.fap.backend.service.RouteFilterService;
+import de.orfap.fap.backend.service.RouteIngestionService;
+import de.orfap.fap.backend.service.RouteRollupService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.hamcrest.collection.IsIterableContainingInAnyOrder;
 import org.junit.After;
 import org.junit.Before;
@@ -17,20 +51,64 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.test.context.web.WebAppConfiguration;
-
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @SpringApplicationConfiguration(classes = FapBackendApplication.class)
 @WebAppConfiguration
+@TestPropertySource(properties = "fap.filter.warm.enabled=false")
 @SuppressWarnings({"unchecked", "Duplicates"})
 public class FapBackendApplicationTests {
 
@@ -48,6 +126,51 @@ public class FapBackendApplicationTests {
   @Autowired
   RouteController routeController;
 
+  @Autowired
+  RouteIngestionService routeIngestionService;
+
+  @Autowired
+  RouteAggregator routeAggregator;
+
+  @Autowired
+  ReferenceDataCache referenceDataCache;
+
+  @Autowired
+  CacheManager cacheManager;
+
+  @Autowired
+  CacheController cacheController;
+
+  @Autowired
+  ObjectMapper objectMapper;
+
+  @PersistenceContext
+  EntityManager entityManager;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  @Autowired
+  WebApplicationContext webApplicationContext;
+
+  @Autowired
+  SettingRepository settingRepository;
+
+  @Autowired
+  FilterCacheWarmer filterCacheWarmer;
+
+  @Autowired
+  EncodedFilterResponses encodedFilterResponses;
+
+  @Autowired
+  CsvRouteImporter csvRouteImporter;
+
+  @Autowired
+  RouteRollupService routeRollupService;
+
+  @Autowired
+  RouteFilterService routeFilterService;
+
   @Test
   public void testFindByYear() throws Exception{
 
@@ -724,6 +847,1320 @@ public class FapBackendApplicationTests {
     assertTrue(!routeController.isRouteInMonthOfYear(monthNotIncluded));
   }
 
+  @Test
+  public void filterByDestination() throws Exception {
+
+    Setting setting = Setting.builder()
+        .name("Test")
+        .creator("Test")
+        .rangeFrom(dateParser.parse("2014-01-01"))
+        .rangeTo(dateParser.parse("2014-12-31"))
+        .filter(new Filter(Collections.EMPTY_LIST, Collections.EMPTY_LIST, TimeSteps.MONTH))
+        .axis(new Axis(QualitiativeValue.DESTINATION, QuantitiveValue.FLIGHTS))
+        .build();
+
+    FilterResponse result = routeFilterService.filter(setting);
+
+    Map<String, List<Double>> check = new TreeMap<>();
+    check.put("Detroit", Arrays.asList(1.0, 0.0, 1.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0));
+    check.put("NewYork", Arrays.asList(1.0, 1.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0));
+    check.put("SanFrancisco", Arrays.asList(1.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0));
+
+    assertEquals(check, result.getData());
+    assertEquals(Arrays.asList("January", "February", "March", "April", "May", "June", "July",
+        "August", "September", "October", "November", "December"), result.getX());
+  }
+
+  @Test
+  public void filterByTime() throws Exception {
+
+    Setting setting = Setting.builder()
+        .name("Test")
+        .creator("Test")
+        .rangeFrom(dateParser.parse("2014-01-01"))
+        .rangeTo(dateParser.parse("2016-12-31"))
+        .filter(new Filter(Collections.EMPTY_LIST, Collections.singletonList("AAA"), TimeSteps.YEAR))
+        .axis(new Axis(QualitiativeValue.TIME, QuantitiveValue.FLIGHTS))
+        .build();
+
+    FilterResponse result = routeFilterService.filter(setting);
+
+    Map<String, List<Double>> check = new LinkedHashMap<>();
+    check.put("2014", Collections.singletonList(3.0));
+    check.put("2015", Collections.singletonList(0.0));
+    check.put("2016", Collections.singletonList(1.0));
+
+    assertEquals(check.toString(), result.getData().toString());
+  }
+
+  @Test
+  public void filterByAirlineDayOfWeek() throws Exception {
+
+    Setting setting = Setting.builder()
+        .name("Test")
+        .creator("Test")
+        .rangeFrom(dateParser.parse("2014-01-01"))
+        .rangeTo(dateParser.parse("2014-01-03"))
+        .filter(new Filter(Collections.EMPTY_LIST, Collections.EMPTY_LIST, TimeSteps.DAY_OF_WEEK))
+        .axis(new Axis(QualitiativeValue.AIRLINE, QuantitiveValue.AVGDELAY))
+        .build();
+
+    FilterResponse result = routeFilterService.filter(setting);
+
+    Map<String, List<Double>> check = new TreeMap<>();
+    check.put("AirBerlin", Arrays.asList(1.0, 0.0, 1.0));
+    check.put("Lufthansa", Arrays.asList(0.0, 1.0, 0.0));
+
+    assertEquals(check, result.getData());
+    assertEquals(Arrays.asList("Wednesday", "Thursday", "Friday"), result.getX());
+  }
+
+  @Test
+  public void ingestStream() throws Exception {
+
+    String json = "["
+        + "{\"date\":\"2013-05-01\",\"delays\":2,\"cancelled\":0,\"passengerCount\":100,"
+        + "\"flightCount\":1,\"airline\":\"AAA\",\"source\":\"NNN\",\"destination\":\"DDD\"},"
+        + "{\"date\":\"2013-05-02\",\"delays\":0,\"cancelled\":0,\"passengerCount\":50,"
+        + "\"flightCount\":1,\"airline\":\"XXX\",\"source\":\"NNN\",\"destination\":\"DDD\"},"
+        + "{\"date\":\"2013-05-03\",\"delays\":0,\"cancelled\":1,\"passengerCount\":80,"
+        + "\"flightCount\":1,\"airline\":\"LLL\",\"source\":\"SSS\",\"destination\":\"NNN\"}"
+        + "]";
+
+    IngestionResult result = routeIngestionService.ingest(
+        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals(2, result.getAccepted());
+    assertEquals(1, result.getRejected());
+    assertEquals(2, routeRepository.findByDateBetween(
+        dateParser.parse("2013-05-01"),
+        dateParser.parse("2013-05-31")).size());
+
+    //Elements which are no objects are rejected, the routes after them are still read
+    String mixed = "[5, [1, {\"a\":2}], "
+        + "{\"date\":\"2013-05-04\",\"delays\":0,\"cancelled\":0,\"passengerCount\":10,"
+        + "\"flightCount\":1,\"airline\":\"AAA\",\"source\":\"NNN\",\"destination\":\"DDD\"}]";
+    result = routeIngestionService.ingest(new ByteArrayInputStream(mixed.getBytes(StandardCharsets.UTF_8)));
+    assertEquals(1, result.getAccepted());
+    assertEquals(2, result.getRejected());
+    assertTrue(result.getErrors().toString(), result.getErrors().get(1).startsWith("Route 2: Expected a route object"));
+
+    try {
+      routeIngestionService.ingest(new ByteArrayInputStream("[{\"delays\":1}".getBytes(StandardCharsets.UTF_8)));
+      fail("Unclosed array accepted");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Expected a JSON array"));
+    }
+  }
+
+  @Test
+  public void dateBucketsEqualNormalizer() throws Exception {
+
+    Calendar calendar = Calendar.getInstance(Locale.US);
+    calendar.setTime(dateParser.parse("1999-12-01"));
+    Date end = dateParser.parse("2021-02-01");
+
+    for (TimeSteps step : TimeSteps.values()) {
+      DateNormalizer dateNormalizer = new DateNormalizer(step);
+      DateBuckets buckets = DateBuckets.of(step);
+
+      calendar.setTime(dateParser.parse("1999-12-01"));
+      Date previous = null;
+
+      while (calendar.getTime().before(end)) {
+        Date date = calendar.getTime();
+
+        assertEquals(step + " " + date,
+            dateNormalizer.format(date), buckets.format(buckets.bucketOf(date)));
+
+        //Buckets have to sort like normalized dates
+        if (previous != null)
+          assertEquals(step + " " + date,
+              Integer.signum(dateNormalizer.normalizeDate(previous).compareTo(dateNormalizer.normalizeDate(date))),
+              Integer.signum(Integer.compare(buckets.bucketOf(previous), buckets.bucketOf(date))));
+
+        previous = date;
+        calendar.add(Calendar.HOUR_OF_DAY, 7);
+      }
+    }
+  }
+
+  @Test
+  public void dateBucketsBetween() throws Exception {
+
+    assertEquals("[2014, 2015, 2016]", Arrays.toString(DateBuckets.of(TimeSteps.YEAR)
+        .bucketsBetween(dateParser.parse("2014-01-05"), dateParser.parse("2016-01-02"))));
+    assertEquals("[1, 2, 3]", Arrays.toString(DateBuckets.of(TimeSteps.MONTH)
+        .bucketsBetween(dateParser.parse("2014-01-05"), dateParser.parse("2014-03-02"))));
+    assertEquals("[1, 2, 3, 4, 5, 7]", Arrays.toString(DateBuckets.of(TimeSteps.DAY_OF_WEEK)
+        .bucketsBetween(dateParser.parse("2014-01-05"), dateParser.parse("2014-01-11"))));
+    assertEquals("[1, 2, 3, 4, 5, 6]", Arrays.toString(DateBuckets.of(TimeSteps.WEEK_OF_YEAR)
+        .bucketsBetween(dateParser.parse("2015-01-01"), dateParser.parse("2015-02-05"))));
+  }
+
+  @Test
+  public void columnarEngineEqualsRollups() throws Exception {
+
+    RouteColumnStore columnStore = new RouteColumnStore();
+    ReflectionTestUtils.setField(columnStore, "routeRepository", routeRepository);
+    ReflectionTestUtils.setField(columnStore, "referenceDataCache", referenceDataCache);
+    columnStore.load();
+
+    assertSameAggregates(columnStore);
+
+    //Keep in sync on writes
+    Route route = Route.builder()
+        .airline(routes.get(0).getAirline())
+        .source(routes.get(0).getSource())
+        .destination(routes.get(0).getDestination())
+        .delays(3)
+        .flightCount(2)
+        .passengerCount(7)
+        .date(dateParser.parse("2014-01-02"))
+        .build();
+    routeRepository.save(route);
+    routeRepository.delete(routes.get(3));
+
+    columnStore.onRoutesChanged(RoutesChangedEvent.of(Arrays.asList(route, routes.get(3))));
+
+    assertSameAggregates(columnStore);
+  }
+
+  private void assertSameAggregates(RouteAggregator engine) throws ParseException {
+    Date from = dateParser.parse("2014-01-02");
+    Date to = dateParser.parse("2016-01-01");
+    List<List<String>> airlineFilters = Arrays.asList(Collections.emptyList(), Collections.singletonList("AAA"));
+
+    for (TimeSteps step : TimeSteps.values())
+      for (QualitiativeValue series : QualitiativeValue.values())
+        for (List<String> airlines : airlineFilters) {
+          DateBuckets buckets = DateBuckets.of(step);
+          int[] keys = buckets.bucketsBetween(from, to);
+
+          List<RouteAggregate> expected =
+              routeAggregator.aggregate(from, to, airlines, Collections.emptyList(), step, series);
+          List<RouteAggregate> actual =
+              engine.aggregate(from, to, airlines, Collections.emptyList(), step, series);
+
+          assertEquals(step + " " + series + " " + airlines,
+              sumsToString(new FilterAccumulator(buckets, keys).addAll(expected).toSums()),
+              sumsToString(new FilterAccumulator(buckets, keys).addAll(actual).toSums()));
+        }
+  }
+
+  private static String sumsToString(Map<String, SortedMap<Integer, double[]>> sums) {
+    StringBuilder result = new StringBuilder();
+    sums.forEach((series, bucketSums) -> bucketSums.forEach((bucket, values) ->
+        result.append(series).append(' ').append(bucket).append(' ').append(Arrays.toString(values)).append('\n')));
+    return result.toString();
+  }
+
+  @Test
+  public void filterKeyIgnoresNameAndOrder() throws Exception {
+
+    Setting setting = Setting.builder()
+        .name("Test")
+        .creator("Test")
+        .rangeFrom(dateParser.parse("2014-01-01"))
+        .rangeTo(dateParser.parse("2014-12-31"))
+        .filter(new Filter(Arrays.asList("NNN", "DDD"), Arrays.asList("LLL", "AAA"), TimeSteps.MONTH))
+        .axis(new Axis(QualitiativeValue.AIRLINE, QuantitiveValue.FLIGHTS))
+        .build();
+
+    Setting same = Setting.builder()
+        .name("Other")
+        .creator("Someone")
+        .shareable(true)
+        .rangeFrom(dateParser.parse("2014-01-01"))
+        .rangeTo(dateParser.parse("2014-12-31"))
+        .filter(new Filter(Arrays.asList("DDD", "NNN"), Arrays.asList("AAA", "LLL", "AAA"), TimeSteps.MONTH))
+        .axis(new Axis(QualitiativeValue.AIRLINE, QuantitiveValue.FLIGHTS))
+        .build();
+
+    Setting other = Setting.builder()
+        .name("Test")
+        .creator("Test")
+        .rangeFrom(dateParser.parse("2014-01-01"))
+        .rangeTo(dateParser.parse("2014-12-31"))
+        .filter(new Filter(Arrays.asList("NNN", "DDD"), Arrays.asList("LLL", "AAA"), TimeSteps.YEAR))
+        .axis(new Axis(QualitiativeValue.AIRLINE, QuantitiveValue.FLIGHTS))
+        .build();
+
+    assertEquals(FilterKey.of(setting), FilterKey.of(same));
+    assertNotEquals(FilterKey.of(setting), FilterKey.of(other));
+  }
+
+  @Test
+  public void cacheEvictsTouchedRangesOnly() throws Exception {
+
+    Setting setting14 = Setting.builder()
+        .name("Test")
+        .creator("Test")
+        .rangeFrom(dateParser.parse("2014-01-01"))
+        .rangeTo(dateParser.parse("2014-12-31"))
+        .filter(new Filter(Collections.EMPTY_LIST, Collections.EMPTY_LIST, TimeSteps.MONTH))
+        .axis(new Axis(QualitiativeValue.TIME, QuantitiveValue.FLIGHTS))
+        .build();
+
+    Setting setting16 = Setting.builder()
+        .name("Test")
+        .creator("Test")
+        .rangeFrom(dateParser.parse("2016-01-01"))
+        .rangeTo(dateParser.parse("2016-12-31"))
+        .filter(new Filter(Collections.EMPTY_LIST, Collections.EMPTY_LIST, TimeSteps.MONTH))
+        .axis(new Axis(QualitiativeValue.TIME, QuantitiveValue.FLIGHTS))
+        .build();
+
+    routeFilterService.filter(setting14);
+    routeFilterService.filter(setting16);
+    routeController.findByYear(2014);
+    routeController.findByYear(2016);
+
+    Cache filter = cacheManager.getCache(RouteCacheEvictor.FILTER);
+    Cache yearRoutes = cacheManager.getCache(RouteCacheEvictor.YEAR_ROUTES);
+    assertNotNull(filter.get(FilterKey.of(setting14)));
+    assertNotNull(filter.get(FilterKey.of(setting16)));
+
+    routeRepository.save(Route.builder()
+        .airline(routes.get(0).getAirline())
+        .source(routes.get(0).getSource())
+        .destination(routes.get(0).getDestination())
+        .flightCount(5)
+        .date(dateParser.parse("2016-02-01"))
+        .build());
+
+    assertNotNull(filter.get(FilterKey.of(setting14)));
+    assertNull(filter.get(FilterKey.of(setting16)));
+    assertNotNull(yearRoutes.get(2014));
+    assertNull(yearRoutes.get(2016));
+
+    assertEquals(Collections.singletonList(5.0), routeFilterService.filter(setting16).getData().get("February"));
+
+    //Moving a route evicts the year it left as well, but not the years in between
+    routeController.findByYear(2014);
+    routeController.findByYear(2015);
+    routeFilterService.filter(setting14);
+    Route moved = routeRepository.findOne(routes.get(0).getOid());
+    moved.setDate(dateParser.parse("2016-03-01"));
+    routeRepository.save(moved);
+
+    assertNull(yearRoutes.get(2014));
+    assertNull(filter.get(FilterKey.of(setting14)));
+    assertNotNull(yearRoutes.get(2015));
+  }
+
+  @Test
+  public void cacheStatistics() throws Exception {
+
+    Setting setting = Setting.builder()
+        .name("Test")
+        .creator("Test")
+        .rangeFrom(dateParser.parse("2014-01-01"))
+        .rangeTo(dateParser.parse("2014-12-31"))
+        .filter(new Filter(Collections.EMPTY_LIST, Collections.EMPTY_LIST, TimeSteps.YEAR))
+        .axis(new Axis(QualitiativeValue.TIME, QuantitiveValue.PASSENGERS))
+        .build();
+
+    routeController.findByYear(2014);
+    CacheStatistics before = statisticsOf(RouteCacheEvictor.FILTER);
+
+    routeFilterService.filter(setting);
+    routeFilterService.filter(setting);
+
+    CacheStatistics after = statisticsOf(RouteCacheEvictor.FILTER);
+    assertEquals(1, after.getMissCount() - before.getMissCount());
+    assertEquals(1, after.getHitCount() - before.getHitCount());
+    assertEquals(1, after.getLoadCount() - before.getLoadCount());
+    assertEquals(1, after.getFlightCount() - before.getFlightCount());
+    assertTrue(after.getWeight() > 0);
+
+    assertEquals(64L * 1024 * 1024, statisticsOf(RouteCacheEvictor.YEAR_ROUTES).getMaximumWeight());
+  }
+
+  private CacheStatistics statisticsOf(String cache) {
+    return cacheController.statistics().stream()
+        .filter(statistics -> statistics.getName().equals(cache))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("No statistics of " + cache));
+  }
+
+  @Test
+  public void findByYearPaged() throws Exception {
+
+    List<Route> found = new ArrayList<>();
+    RoutePage page = routeController.findByYearPaged(2014, null, null, 2);
+    found.addAll(page.getRoutes());
+    int pages = 1;
+
+    while (page.getAfter() != null) {
+      page = routeController.findByYearPaged(2014, page.getAfter(), page.getAfterOid(), 2);
+      found.addAll(page.getRoutes());
+      pages++;
+    }
+
+    assertEquals(3, pages);
+    assertThat(found, IsIterableContainingInAnyOrder.containsInAnyOrder(
+        routeRepository.findByDateBetween(dateParser.parse("2014-01-01"), dateParser.parse("2014-12-31")).toArray()));
+
+    //A cursor needs its date and oid
+    MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    assertEquals(HttpStatus.BAD_REQUEST.value(), mockMvc.perform(get("/routes/search/findByYearPaged")
+        .param("year", "2014").param("after", String.valueOf(page.getRoutes().get(0).getDate().getTime())))
+        .andReturn().getResponse().getStatus());
+    assertEquals(HttpStatus.BAD_REQUEST.value(), mockMvc.perform(get("/routes/search/findByYearPaged")
+        .param("year", "2014").param("afterOid", page.getRoutes().get(0).getOid().toString()))
+        .andReturn().getResponse().getStatus());
+  }
+
+  @Test
+  public void streamByYear() throws Exception {
+
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    routeController.streamByYear(2014, response);
+
+    JsonNode routes = objectMapper.readTree(response.getContentAsByteArray());
+
+    assertEquals(5, routes.size());
+    assertEquals("AirBerlin", routes.get(0).get("airline").get("name").asText());
+    for (int i = 1; i < routes.size(); i++)
+      assertTrue(routes.get(i - 1).get("date").asLong() <= routes.get(i).get("date").asLong());
+  }
+
+  @Test
+  public void monthCoverage() throws Exception {
+
+    Map<String, Long> coverage = routeController.monthCoverage(2014, 2015);
+
+    assertEquals(24, coverage.size());
+    assertEquals(Long.valueOf(3), coverage.get("2014-01"));
+    assertEquals(Long.valueOf(1), coverage.get("2014-02"));
+    assertEquals(Long.valueOf(0), coverage.get("2014-12"));
+    assertEquals(Long.valueOf(1), coverage.get("2015-01"));
+
+    //Maintained on write
+    Route route = routeRepository.save(Route.builder()
+        .airline(routes.get(0).getAirline())
+        .source(routes.get(0).getSource())
+        .destination(routes.get(0).getDestination())
+        .date(dateParser.parse("2015-11-05"))
+        .build());
+
+    assertEquals(Long.valueOf(1), routeController.monthCoverage(2015, 2015).get("2015-11"));
+
+    routeRepository.delete(route);
+    routeRepository.delete(routes.get(0));
+
+    coverage = routeController.monthCoverage(2014, 2015);
+    assertEquals(Long.valueOf(0), coverage.get("2015-11"));
+    assertEquals(Long.valueOf(2), coverage.get("2014-01"));
+  }
+
+  @Test
+  public void routeIndexes() {
+
+    List<String> indexes = entityManager.createNativeQuery(
+        "select distinct index_name from information_schema.system_indexinfo where table_name = 'ROUTE'")
+        .getResultList();
+
+    assertTrue(indexes.toString(), indexes.contains("IDX_ROUTE_DATE_AIRLINE_DESTINATION"));
+    assertTrue(indexes.toString(), indexes.contains("IDX_ROUTE_DATE_DESTINATION"));
+  }
+
+  @Test
+  public void mapToQuantitiveParallelEqualsSequential() throws ParseException {
+    Set<Date> keys = new HashSet<>();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (TimeSteps timestep : TimeSteps.values()) {
+        for (QuantitiveValue quant : QuantitiveValue.values()) {
+          DateNormalizer normalizer = new DateNormalizer(timestep);
+
+          Map<String, List<Double>> sequential = routeController.mapToQuantitive(
+              normalizer, quant, keys, routeController.mapByAirline(manyRoutes()));
+          Map<String, List<Double>> parallel = routeController.mapToQuantitive(
+              normalizer, quant, keys, routeController.mapByAirline(manyRoutes()), pool);
+
+          assertEquals(timestep + " " + quant, sequential, parallel);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Routes of two airlines with fractional values, enough to be split into several chunks.
+   */
+  private List<Route> manyRoutes() throws ParseException {
+    Date first = dateParser.parse("2014-01-01");
+    Random random = new Random(42);
+    List<Route> many = new ArrayList<>();
+    for (int i = 0; i < 20000; i++)
+      many.add(Route.builder()
+          .airline(routes.get(i % 2).getAirline())
+          .source(routes.get(0).getSource())
+          .destination(routes.get(0).getDestination())
+          .delays(random.nextInt(4) == 0 ? 0 : random.nextDouble() * 60)
+          .cancelled(random.nextInt(3))
+          .flightCount(random.nextDouble() * 10)
+          .passengerCount(random.nextDouble() * 300)
+          .date(new Date(first.getTime() + (long) random.nextInt(730) * 24 * 60 * 60 * 1000))
+          .build());
+    return many;
+  }
+
+  @Test
+  public void filterAccumulatorAddsBucketsOutsideKeys() throws ParseException {
+    DateBuckets buckets = DateBuckets.of(TimeSteps.YEAR);
+    int[] keys = {2015};
+
+    FilterAccumulator accumulator = new FilterAccumulator(buckets, keys).addAll(Arrays.asList(
+        new RouteAggregate(dateParser.parse("2016-06-01"), "Lufthansa", 1, 10, 0, 30, 1, 2),
+        new RouteAggregate(dateParser.parse("2014-06-01"), "Airberlin", 2, 20, 1, 0, 0, 1),
+        new RouteAggregate(dateParser.parse("2016-07-01"), "Lufthansa", 3, 30, 0, 0, 0, 1)
+    ));
+
+    FilterResponse response = accumulator.toResponse(QuantitiveValue.AVGDELAY, QualitiativeValue.AIRLINE);
+    assertEquals(Arrays.asList("2014", "2015", "2016"), response.getX());
+    assertEquals(Arrays.asList(0.0, 0.0, 10.0), response.getData().get("Lufthansa"));
+    assertEquals(Arrays.asList(0.0, 0.0, 0.0), response.getData().get("Airberlin"));
+
+    response = accumulator.toResponse(QuantitiveValue.FLIGHTS, QualitiativeValue.AIRLINE);
+    assertEquals(Arrays.asList(0.0, 0.0, 4.0), response.getData().get("Lufthansa"));
+    assertEquals(Arrays.asList(2.0, 0.0, 0.0), response.getData().get("Airberlin"));
+
+    //Every series holds the keys and its own buckets only
+    Map<String, SortedMap<Integer, double[]>> sums = accumulator.toSums();
+    assertEquals(new HashSet<>(Arrays.asList(2015, 2016)), sums.get("Lufthansa").keySet());
+    assertEquals(new HashSet<>(Arrays.asList(2014, 2015)), sums.get("Airberlin").keySet());
+    assertEquals(20.0, sums.get("Airberlin").get(2014)[FilterAccumulator.PASSENGERS], 0);
+
+    //Time has no unnamed series here, so only keys with zero
+    response = accumulator.toResponse(QuantitiveValue.FLIGHTS, QualitiativeValue.TIME);
+    assertEquals(Collections.singletonMap("2015", Collections.singletonList(0.0)), response.getData());
+  }
+
+  @Test
+  public void filterPipelineKeepsRouteDates() throws ParseException {
+    List<Route> many = manyRoutes();
+    List<Date> dates = new ArrayList<>();
+    many.forEach(route -> dates.add(route.getDate()));
+
+    DateNormalizer normalizer = new DateNormalizer(TimeSteps.MONTH);
+    Set<Date> keys = new HashSet<>();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      routeController.mapByTime(normalizer, QuantitiveValue.FLIGHTS, keys, many);
+      routeController.mapToQuantitive(normalizer, QuantitiveValue.FLIGHTS, keys, routeController.mapByAirline(many));
+      routeController.mapToQuantitive(
+          normalizer, QuantitiveValue.FLIGHTS, keys, routeController.mapByAirline(many), pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    for (int i = 0; i < many.size(); i++)
+      assertEquals(dates.get(i), many.get(i).getDate());
+  }
+
+  @Test
+  public void dateNormalizerIsThreadSafe() throws ParseException {
+    DateNormalizer shared = new DateNormalizer(TimeSteps.WEEK_OF_YEAR);
+    List<Date> dates = new ArrayList<>();
+    manyRoutes().forEach(route -> dates.add(route.getDate()));
+
+    List<String> sequential = new ArrayList<>();
+    dates.forEach(date -> sequential.add(shared.format(shared.normalizeDate(date))));
+
+    List<String> parallel = dates.parallelStream()
+        .map(date -> shared.format(shared.normalizeDate(date)))
+        .collect(Collectors.toList());
+
+    assertEquals(sequential, parallel);
+  }
+
+  @Test
+  public void findByYearLoadsReadOnlyRoutes() throws ParseException {
+    Date start = dateParser.parse("2014-01-01");
+    Date end = dateParser.parse("2015-01-01");
+
+    new TransactionTemplate(transactionManager).execute(status -> {
+      List<Route> loaded = routeRepository.findByDateBetween(start, end);
+      assertTrue(!loaded.isEmpty());
+      loaded.forEach(route -> route.setFlightCount(1000));
+      entityManager.flush();
+      return null;
+    });
+
+    routeRepository.findByDateBetween(start, end)
+        .forEach(route -> assertNotEquals(1000.0, route.getFlightCount(), 0));
+  }
+
+  @Test
+  public void filterResponseBinaryEqualsJson() throws Exception {
+    Setting setting = Setting.builder()
+        .name("Test")
+        .creator("Test")
+        .rangeFrom(dateParser.parse("2014-01-01"))
+        .rangeTo(dateParser.parse("2017-01-01"))
+        .filter(new Filter(Collections.EMPTY_LIST, Collections.EMPTY_LIST, TimeSteps.MONTH))
+        .axis(new Axis(QualitiativeValue.AIRLINE, QuantitiveValue.AVGDELAY))
+        .build();
+
+    MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    byte[] body = objectMapper.writeValueAsBytes(setting);
+
+    MvcResult json = mockMvc.perform(post("/routes/filter")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(body))
+        .andReturn();
+    assertTrue(json.getResponse().getContentType().startsWith(MediaType.APPLICATION_JSON_VALUE));
+
+    MvcResult binary = mockMvc.perform(post("/routes/filter")
+        .contentType(MediaType.APPLICATION_JSON)
+        .accept(FilterResponseConverter.MEDIA_TYPE)
+        .content(body))
+        .andReturn();
+    assertEquals(FilterResponseConverter.MEDIA_TYPE_VALUE, binary.getResponse().getContentType());
+
+    FilterResponse decoded = new FilterResponseConverter().read(FilterResponse.class,
+        new MockHttpInputMessage(binary.getResponse().getContentAsByteArray()));
+
+    assertEquals(objectMapper.readTree(json.getResponse().getContentAsByteArray()), objectMapper.valueToTree(decoded));
+    assertTrue(binary.getResponse().getContentAsByteArray().length < json.getResponse().getContentAsByteArray().length);
+  }
+
+  @Test
+  public void filterJobsCoalesceAndRejectWhenFull() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    FilterResponse response = FilterResponse.builder().build();
+
+    FilterJobService jobs = new FilterJobService();
+    ReflectionTestUtils.setField(jobs, "routeFilterService", new RouteFilterService() {
+      @Override
+      public FilterResponse filter(Setting setting) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return response;
+      }
+    });
+    ReflectionTestUtils.setField(jobs, "threads", 1);
+    ReflectionTestUtils.setField(jobs, "queueCapacity", 1);
+    ReflectionTestUtils.setField(jobs, "retention", 600L);
+    jobs.start();
+
+    try {
+      Setting setting = filterSetting(TimeSteps.MONTH);
+      Setting same = filterSetting(TimeSteps.MONTH);
+      same.setName("Other");
+
+      FilterJobStatus first = jobs.submit(setting);
+      FilterJobStatus joined = jobs.submit(same);
+      assertEquals(first.getId(), joined.getId());
+      assertEquals(2, joined.getSubmissions());
+
+      FilterJobStatus queued = jobs.submit(filterSetting(TimeSteps.YEAR));
+      assertNotEquals(first.getId(), queued.getId());
+
+      try {
+        jobs.submit(filterSetting(TimeSteps.DAY_OF_WEEK));
+        throw new AssertionError("Queue should be full");
+      } catch (RejectedExecutionException e) {
+        //expected
+      }
+
+      assertNull(jobs.getResult(first.getId()));
+      release.countDown();
+
+      assertEquals(FilterJobStatus.State.DONE, jobs.getStatus(first.getId(), 5000).getState());
+      assertEquals(FilterJobStatus.State.DONE, jobs.getStatus(queued.getId(), 5000).getState());
+      assertTrue(response == jobs.getResult(first.getId()));
+    } finally {
+      jobs.stop();
+    }
+  }
+
+  @Test
+  public void filterJobEqualsFilter() throws Exception {
+    Setting setting = filterSetting(TimeSteps.WEEK_OF_YEAR);
+
+    ResponseEntity<FilterJobStatus> submitted = routeController.submitFilterJob(setting);
+    assertEquals(HttpStatus.ACCEPTED, submitted.getStatusCode());
+    UUID id = submitted.getBody().getId();
+
+    ResponseEntity<FilterJobStatus> status = routeController.getFilterJob(id, RouteController.MAX_JOB_WAIT);
+    assertEquals(FilterJobStatus.State.DONE, status.getBody().getState());
+
+    assertEquals(routeFilterService.filter(setting), routeController.getFilterJobResult(id).getBody());
+    assertEquals(HttpStatus.NOT_FOUND, routeController.getFilterJob(UUID.randomUUID(), 0).getStatusCode());
+  }
+
+  private Setting filterSetting(TimeSteps timestep) throws ParseException {
+    return Setting.builder()
+        .name("Test")
+        .creator("Test")
+        .rangeFrom(dateParser.parse("2014-01-01"))
+        .rangeTo(dateParser.parse("2016-12-31"))
+        .filter(new Filter(Collections.EMPTY_LIST, Collections.EMPTY_LIST, timestep))
+        .axis(new Axis(QualitiativeValue.DESTINATION, QuantitiveValue.FLIGHTS))
+        .build();
+  }
+
+  @Test
+  public void singleFlightCoalescesConcurrentLoads() throws Exception {
+    SingleFlight flights = new SingleFlight();
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger computations = new AtomicInteger();
+    int callers = 8;
+
+    ExecutorService executor = Executors.newFixedThreadPool(callers);
+    try {
+      List<Future<Object>> results = new ArrayList<>();
+      for (int i = 0; i < callers; i++)
+        results.add(executor.submit(() -> flights.load("key", () -> {
+          computations.incrementAndGet();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return new Object();
+        })));
+
+      //Wait until all other callers joined the first computation
+      long deadline = System.currentTimeMillis() + 10000;
+      while (flights.getCoalescedCount() < callers - 1 && System.currentTimeMillis() < deadline)
+        Thread.sleep(5);
+      release.countDown();
+
+      Object shared = results.get(0).get();
+      for (Future<Object> result : results)
+        assertTrue(shared == result.get());
+
+      assertEquals(1, computations.get());
+      assertEquals(1, flights.getFlightCount());
+      assertEquals(callers - 1, flights.getCoalescedCount());
+
+      //Later loads compute again
+      assertNotEquals(shared, flights.load("key", Object::new));
+      assertEquals(2, flights.getFlightCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void filterCacheWarmerFiltersSharedAndMostRequestedSettings() throws Exception {
+    Cache filter = cacheManager.getCache(RouteCacheEvictor.FILTER);
+    filter.clear();
+
+    Setting shared = filterSetting(TimeSteps.MONTH);
+    shared.setShareable(true);
+    shared.setFilter(new Filter(new ArrayList<>(), new ArrayList<>(Collections.singletonList("LLL")), TimeSteps.MONTH));
+    settingRepository.save(shared);
+
+    Setting frequent = filterSetting(TimeSteps.YEAR);
+    Setting rare = filterSetting(TimeSteps.DAY_OF_WEEK);
+    filterCacheWarmer.recordAccess(frequent);
+    filterCacheWarmer.recordAccess(rare);
+    filterCacheWarmer.recordAccess(frequent);
+
+    try {
+      List<Setting> mostRequested = filterCacheWarmer.mostRequested(Integer.MAX_VALUE);
+      assertTrue(mostRequested.indexOf(frequent) < mostRequested.indexOf(rare));
+      assertTrue(filterCacheWarmer.warm() >= 3);
+
+      assertNotNull(filter.get(FilterKey.of(shared)));
+      assertNotNull(filter.get(FilterKey.of(frequent)));
+      assertNotNull(filter.get(FilterKey.of(rare)));
+      assertEquals(routeFilterService.filter(shared), filter.get(FilterKey.of(shared)).get());
+    } finally {
+      settingRepository.delete(shared);
+    }
+  }
+
+  @Test
+  public void etagsChangeOnlyWithRoutesOfTheirRange() throws Exception {
+    MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    byte[] body = objectMapper.writeValueAsBytes(filterSetting(TimeSteps.MONTH));
+
+    MvcResult filter = mockMvc.perform(post("/routes/filter")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(body))
+        .andReturn();
+    String filterTag = filter.getResponse().getHeader(HttpHeaders.ETAG);
+    assertEquals(HttpStatus.OK.value(), filter.getResponse().getStatus());
+    assertNotNull(filterTag);
+
+    MvcResult notModified = mockMvc.perform(post("/routes/filter")
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(HttpHeaders.IF_NONE_MATCH, filterTag)
+        .content(body))
+        .andReturn();
+    assertEquals(HttpStatus.NOT_MODIFIED.value(), notModified.getResponse().getStatus());
+    assertEquals(0, notModified.getResponse().getContentAsByteArray().length);
+
+    MvcResult year = mockMvc.perform(get("/routes/search/findByYear").param("year", "2015")).andReturn();
+    String yearTag = year.getResponse().getHeader(HttpHeaders.ETAG);
+    assertEquals(HttpStatus.OK.value(), year.getResponse().getStatus());
+    assertEquals(HttpStatus.NOT_MODIFIED.value(), mockMvc.perform(get("/routes/search/findByYear")
+        .param("year", "2015")
+        .header(HttpHeaders.IF_NONE_MATCH, yearTag))
+        .andReturn().getResponse().getStatus());
+
+    //A write in 2014 changes the filter, but not the routes of 2015
+    routeRepository.save(Route.builder()
+        .airline(routes.get(0).getAirline())
+        .source(routes.get(0).getSource())
+        .destination(routes.get(0).getDestination())
+        .flightCount(1)
+        .date(dateParser.parse("2014-06-01"))
+        .build());
+
+    MvcResult changed = mockMvc.perform(post("/routes/filter")
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(HttpHeaders.IF_NONE_MATCH, filterTag)
+        .content(body))
+        .andReturn();
+    assertEquals(HttpStatus.OK.value(), changed.getResponse().getStatus());
+    assertNotEquals(filterTag, changed.getResponse().getHeader(HttpHeaders.ETAG));
+
+    assertEquals(yearTag, mockMvc.perform(get("/routes/search/findByYear").param("year", "2015"))
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG));
+
+    //Moving a route out of 2015 changes the routes of 2015
+    Route moved = routeRepository.findByDateBetween(
+        dateParser.parse("2015-01-01"), dateParser.parse("2015-12-31")).get(0);
+    moved.setDate(dateParser.parse("2016-06-01"));
+    routeRepository.save(moved);
+
+    MvcResult left = mockMvc.perform(get("/routes/search/findByYear")
+        .param("year", "2015")
+        .header(HttpHeaders.IF_NONE_MATCH, yearTag))
+        .andReturn();
+    assertEquals(HttpStatus.OK.value(), left.getResponse().getStatus());
+    assertNotEquals(yearTag, left.getResponse().getHeader(HttpHeaders.ETAG));
+  }
+
+  @Test
+  public void filterResponsesAreServedFromTheirEncoding() throws Exception {
+    Cache filterBytes = cacheManager.getCache(RouteCacheEvictor.FILTER_BYTES);
+    filterBytes.clear();
+
+    Setting setting = filterSetting(TimeSteps.WEEK_OF_YEAR);
+    MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    byte[] body = objectMapper.writeValueAsBytes(setting);
+
+    //Compress even the small responses of the test data
+    ReflectionTestUtils.setField(encodedFilterResponses, "minCompressionSize", 0);
+    CacheStatistics before = statisticsOf(RouteCacheEvictor.FILTER_BYTES);
+    MvcResult first;
+    MvcResult second;
+    CacheStatistics after;
+    MvcResult refused;
+    try {
+      first = mockMvc.perform(post("/routes/filter")
+          .contentType(MediaType.APPLICATION_JSON)
+          .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate")
+          .content(body))
+          .andReturn();
+      second = mockMvc.perform(post("/routes/filter")
+          .contentType(MediaType.APPLICATION_JSON)
+          .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate")
+          .content(body))
+          .andReturn();
+      after = statisticsOf(RouteCacheEvictor.FILTER_BYTES);
+
+      refused = mockMvc.perform(post("/routes/filter")
+          .contentType(MediaType.APPLICATION_JSON)
+          .header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, *")
+          .content(body))
+          .andReturn();
+    } finally {
+      ReflectionTestUtils.setField(encodedFilterResponses, "minCompressionSize", 2048);
+    }
+
+    EncodedFilterResponses.Entry entry = filterBytes.get(
+        new EncodedFilterResponses.Key(FilterKey.of(setting), "application/json;charset=UTF-8", true),
+        EncodedFilterResponses.Entry.class);
+    assertNotNull(entry);
+    assertTrue(entry.isGzip());
+    assertEquals("gzip", first.getResponse().getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertArrayEquals(entry.getBody(), first.getResponse().getContentAsByteArray());
+    assertArrayEquals(entry.getBody(), second.getResponse().getContentAsByteArray());
+
+    //The second request is written of the encoded bytes of the first
+    assertEquals(1, after.getMissCount() - before.getMissCount());
+    assertEquals(1, after.getHitCount() - before.getHitCount());
+
+    //Gzip refused by its quality
+    assertNull(refused.getResponse().getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(objectMapper.valueToTree(routeFilterService.filter(setting)),
+        objectMapper.readTree(refused.getResponse().getContentAsByteArray()));
+
+    try (InputStream json = new GZIPInputStream(new ByteArrayInputStream(entry.getBody()))) {
+      assertEquals(objectMapper.valueToTree(routeFilterService.filter(setting)), objectMapper.readTree(json));
+    }
+  }
+
+  @Test
+  public void csvImportParsesChunksInOrder() throws Exception {
+    StringBuilder csv = new StringBuilder("\uFEFF\"FL_DATE\",\"UNIQUE_CARRIER\",\"ORIGIN_CITY_MARKET_ID\","
+        + "\"DEST_CITY_MARKET_ID\",\"ARR_DELAY_NEW\",\"CANCELLED\",\"FLIGHTS\",\"DEST_CITY_NAME\",\r\n");
+    for (int i = 0; i < 500; i++)
+      csv.append("2015-02-").append(String.format("%02d", i % 28 + 1))
+          .append(",\"LLL\",NNN,DDD,").append(i % 7).append(".50,0.00,1.00,\"Detroit, MI\",\r\n");
+    csv.append("2015-02-30,LLL,NNN,DDD,1.00,0.00,1.00,,\r\n");
+    csv.append("2015-03-01,XXX,NNN,DDD,1.00,0.00,1.00,,\r\n");
+    csv.append("\r\n");
+    csv.append("20150301,AAA,DDD,SSS,,1.00,1,");
+
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    try (GZIPOutputStream zip = new GZIPOutputStream(gzipped)) {
+      zip.write(csv.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    //Split into many chunks of a few lines
+    ReflectionTestUtils.setField(csvRouteImporter, "chunkBytes", 256);
+    IngestionResult result;
+    try {
+      result = csvRouteImporter.importStream(new ByteArrayInputStream(gzipped.toByteArray()), new CsvColumns(), IngestionMode.INSERT);
+    } finally {
+      ReflectionTestUtils.setField(csvRouteImporter, "chunkBytes", 1048576);
+    }
+
+    assertEquals(501, result.getAccepted());
+    assertEquals(2, result.getRejected());
+    assertTrue(result.getErrors().get(0).startsWith("Route 501: Invalid date"));
+    assertTrue(result.getErrors().get(1).startsWith("Route 502: Cant find"));
+
+    List<Route> february = routeRepository.findByDateBetween(
+        dateParser.parse("2015-02-01"), dateParser.parse("2015-02-28"));
+    assertEquals(500, february.size());
+    //Sum of i % 7 + 0.5 for i below 500
+    assertEquals(1744.0, february.stream().mapToDouble(Route::getDelays).sum(), 1e-9);
+    assertTrue(february.stream().allMatch(route -> route.getAirline().getId().equals("LLL")
+        && route.getSource().getId().equals("NNN") && route.getDestination().getId().equals("DDD")));
+
+    List<Route> march = routeRepository.findByDateBetween(
+        dateParser.parse("2015-03-01"), dateParser.parse("2015-03-01"));
+    assertEquals(1, march.size());
+    assertEquals(1.0, march.get(0).getCancelled(), 0);
+    assertEquals(0.0, march.get(0).getDelays(), 0);
+    assertEquals("SSS", march.get(0).getDestination().getId());
+  }
+
+  @Test
+  public void upsertIngestionIsIdempotent() throws Exception {
+
+    String route = "{\"date\":\"2013-06-0%d\",\"delays\":%d,\"cancelled\":0,\"passengerCount\":100,"
+        + "\"flightCount\":1,\"airline\":\"%s\",\"source\":\"NNN\",\"destination\":\"DDD\"}";
+    String json = "["
+        + String.format(route, 1, 2, "AAA") + ","
+        + String.format(route, 2, 3, "AAA") + ","
+        + String.format(route, 2, 4, "LLL")
+        + "]";
+
+    IngestionResult first = routeIngestionService.ingest(
+        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), IngestionMode.UPSERT);
+    assertEquals(3, first.getAccepted());
+    assertEquals(0, first.getUpdated());
+
+    Date start = dateParser.parse("2013-06-01");
+    Date end = dateParser.parse("2013-06-30");
+    assertEquals(3, routeRepository.findByDateBetween(start, end).size());
+
+    //A replay writes nothing
+    IngestionResult replay = routeIngestionService.ingest(
+        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), IngestionMode.UPSERT);
+    assertEquals(3, replay.getAccepted());
+    assertEquals(3, replay.getUnchanged());
+    assertEquals(0, replay.getUpdated());
+    assertEquals(3, routeRepository.findByDateBetween(start, end).size());
+
+    //Changed values replace the saved route, repeated keys of one upload are rejected
+    String changed = "["
+        + String.format(route, 2, 5, "AAA") + ","
+        + String.format(route, 3, 1, "LLL") + ","
+        + String.format(route, 3, 6, "LLL")
+        + "]";
+    IngestionResult update = routeIngestionService.ingest(
+        new ByteArrayInputStream(changed.getBytes(StandardCharsets.UTF_8)), IngestionMode.UPSERT);
+    assertEquals(2, update.getAccepted());
+    assertEquals(1, update.getRejected());
+    assertEquals(1, update.getUpdated());
+    assertEquals(0, update.getUnchanged());
+    assertTrue(update.getErrors().toString(), update.getErrors().get(0).startsWith("Route 3: Same date"));
+
+    List<Route> routes = routeRepository.findByDateBetween(start, end);
+    assertEquals(4, routes.size());
+    assertEquals(2 + 5 + 4 + 1, routes.stream().mapToDouble(Route::getDelays).sum(), 0.0);
+
+    //Insert keeps adding, keys of several saved routes can not be upserted
+    routeIngestionService.ingest(
+        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    assertEquals(7, routeRepository.findByDateBetween(start, end).size());
+
+    IngestionResult ambiguous = routeIngestionService.ingest(
+        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), IngestionMode.UPSERT);
+    assertEquals(0, ambiguous.getAccepted());
+    assertEquals(3, ambiguous.getRejected());
+    assertEquals(7, routeRepository.findByDateBetween(start, end).size());
+
+    //A second upsert waits for the running one
+    RouteIngestionService.Ingestion running = routeIngestionService.begin(IngestionMode.UPSERT);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<IngestionResult> waiting = executor.submit(() -> routeIngestionService.ingest(
+          new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)), IngestionMode.UPSERT));
+      Thread.sleep(200);
+      assertFalse(waiting.isDone());
+
+      running.finish();
+      assertEquals(0, waiting.get(10, TimeUnit.SECONDS).getAccepted());
+    } finally {
+      running.finish();
+      executor.shutdownNow();
+    }
+
+    //An upsert waiting too long is rejected with 503
+    running = routeIngestionService.begin(IngestionMode.UPSERT);
+    ReflectionTestUtils.setField(routeIngestionService, "upsertWaitSeconds", 0);
+    try {
+      MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+      assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), mockMvc.perform(post("/routes/ingest")
+          .param("mode", "UPSERT")
+          .contentType(MediaType.APPLICATION_JSON)
+          .content("[]"))
+          .andReturn().getResponse().getStatus());
+    } finally {
+      ReflectionTestUtils.setField(routeIngestionService, "upsertWaitSeconds", 10);
+      running.finish();
+    }
+
+    //The permit is released after a failed upsert
+    try {
+      routeIngestionService.ingest(
+          new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)), IngestionMode.UPSERT);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals(0, routeIngestionService.ingest(
+          new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)), IngestionMode.UPSERT).getAccepted());
+    }
+  }
+
+  @Test
+  public void delayPercentilesMergeRollupHistograms() throws Exception {
+
+    Random random = new Random(7);
+    Date first = dateParser.parse("2017-03-01");
+    List<Route> delayed = new ArrayList<>();
+    Map<String, List<Double>> delaysByAirline = new TreeMap<>();
+    for (int i = 0; i < 300; i++) {
+      Route route = Route.builder()
+          .airline(routes.get(i % 2).getAirline())
+          .source(routes.get(0).getSource())
+          .destination(routes.get(i % 3).getDestination())
+          .delays(random.nextInt(4) == 0 ? 0 : random.nextInt(400))
+          .flightCount(1)
+          .date(new Date(first.getTime() + (long) random.nextInt(28) * 24 * 60 * 60 * 1000))
+          .build();
+      delayed.add(route);
+      delaysByAirline.computeIfAbsent(route.getAirline().getName(), name -> new ArrayList<>()).add(route.getDelays());
+    }
+    routeRepository.save(delayed);
+
+    //Histograms merge and encode without loss
+    DelayHistogram whole = new DelayHistogram();
+    DelayHistogram left = new DelayHistogram();
+    DelayHistogram right = new DelayHistogram();
+    for (int i = 0; i < delayed.size(); i++) {
+      whole.record(delayed.get(i).getDelays());
+      (i % 2 == 0 ? left : right).record(delayed.get(i).getDelays());
+    }
+    DelayHistogram decoded = DelayHistogram.decode(left.merge(right).encode());
+    assertEquals(whole.getTotalCount(), decoded.getTotalCount());
+    assertEquals(whole.percentile(90), decoded.percentile(90), 0);
+
+    RouteColumnStore columnStore = new RouteColumnStore();
+    ReflectionTestUtils.setField(columnStore, "routeRepository", routeRepository);
+    ReflectionTestUtils.setField(columnStore, "referenceDataCache", referenceDataCache);
+    columnStore.load();
+
+    Date from = dateParser.parse("2017-03-01");
+    Date to = dateParser.parse("2017-03-31");
+    DateBuckets buckets = DateBuckets.of(TimeSteps.MONTH);
+
+    for (QuantitiveValue quant : Arrays.asList(
+        QuantitiveValue.P50DELAY, QuantitiveValue.P90DELAY, QuantitiveValue.P99DELAY)) {
+      FilterResponse result = routeFilterService.filter(Setting.builder()
+          .name("Test")
+          .creator("Test")
+          .rangeFrom(from)
+          .rangeTo(to)
+          .filter(new Filter(Collections.EMPTY_LIST, Collections.EMPTY_LIST, TimeSteps.MONTH))
+          .axis(new Axis(QualitiativeValue.AIRLINE, quant))
+          .build());
+
+      //Nearest rank within the bucket width of 1/16
+      delaysByAirline.forEach((airline, delays) -> {
+        Collections.sort(delays);
+        double exact = delays.get((int) Math.ceil(quant.getPercentile() / 100 * delays.size()) - 1);
+        double actual = result.getData().get(airline).get(0);
+        assertEquals(quant + " " + airline, exact, actual, exact / 32 + 0.5);
+      });
+
+      FilterAccumulator accumulator = new FilterAccumulator(buckets, buckets.bucketsBetween(from, to));
+      columnStore.aggregateWithDelayHistograms(
+          from, to, Collections.emptyList(), Collections.emptyList(), TimeSteps.MONTH, QualitiativeValue.AIRLINE,
+          accumulator::add);
+      FilterResponse columnar = accumulator.toResponse(quant, QualitiativeValue.AIRLINE);
+      assertEquals(quant.toString(), result.getData(), columnar.getData());
+    }
+  }
+
+  @Test
+  public void rollupsFollowMovedRoutes() throws Exception {
+    Date oldDay = dateParser.parse("2014-01-01");
+    Date newDay = dateParser.parse("2014-01-20");
+    double before = rolledUpFlights(oldDay);
+
+    Route moved = routeRepository.findOne(routes.get(0).getOid());
+    moved.setDate(newDay);
+    routeRepository.save(moved);
+
+    assertEquals(before - moved.getFlightCount(), rolledUpFlights(oldDay), 0);
+    assertEquals(moved.getFlightCount(), rolledUpFlights(newDay), 0);
+  }
+
+  private double rolledUpFlights(Date day) {
+    Number flights = entityManager
+        .createQuery("select coalesce(sum(r.flightCount), 0) from RouteRollup r where r.date = :day", Number.class)
+        .setParameter("day", day)
+        .getSingleResult();
+    return flights.doubleValue();
+  }
+
+  @Test
+  public void filterJobFailsOnError() throws Exception {
+    FilterJobService failing = new FilterJobService();
+    ReflectionTestUtils.setField(failing, "threads", 1);
+    ReflectionTestUtils.setField(failing, "queueCapacity", 1);
+    ReflectionTestUtils.setField(failing, "retention", 60);
+    ReflectionTestUtils.setField(failing, "routeFilterService", new RouteFilterService() {
+      @Override
+      public FilterResponse filter(Setting setting) {
+        throw new StackOverflowError();
+      }
+    });
+    failing.start();
+    try {
+      FilterJobStatus status = failing.submit(filterSetting(TimeSteps.MONTH));
+      status = failing.getStatus(status.getId(), 10000);
+
+      assertEquals(FilterJobStatus.State.FAILED, status.getState());
+      assertEquals(StackOverflowError.class.getName(), status.getError());
+      assertNull(failing.getResult(status.getId()));
+    } finally {
+      failing.stop();
+    }
+  }
+
+  @Test
+  public void rollupsOfADayAreRefreshedOneWriteAtATime() throws Exception {
+    Date day = dateParser.parse("2014-01-25");
+    double before = rolledUpFlights(day);
+    CountDownLatch written = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      //The first write holds the day until it commits
+      Future<?> first = executor.submit(() -> new TransactionTemplate(transactionManager).execute(status -> {
+        routeRepository.save(Route.builder()
+            .airline(routes.get(0).getAirline())
+            .source(routes.get(0).getSource())
+            .destination(routes.get(0).getDestination())
+            .flightCount(1)
+            .date(day)
+            .build());
+        written.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return null;
+      }));
+      assertTrue(written.await(10, TimeUnit.SECONDS));
+
+      List<Future<?>> others = new ArrayList<>();
+      for (int i = 0; i < 3; i++)
+        others.add(executor.submit(() -> routeRepository.save(Route.builder()
+            .airline(routes.get(1).getAirline())
+            .source(routes.get(0).getSource())
+            .destination(routes.get(0).getDestination())
+            .flightCount(2)
+            .date(day)
+            .build())));
+      Thread.sleep(200);
+      others.forEach(other -> assertFalse(other.isDone()));
+
+      release.countDown();
+      first.get(10, TimeUnit.SECONDS);
+      for (Future<?> other : others)
+        other.get(10, TimeUnit.SECONDS);
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+
+    assertEquals(before + 1 + 3 * 2, rolledUpFlights(day), 0);
+  }
+
+  @Test
+  public void rollupsAreRebuiltMonthByMonth() throws Exception {
+    List<Object[]> before = rollupSumsByDay();
+
+    routeRollupService.rebuild();
+
+    List<Object[]> after = rollupSumsByDay();
+    assertEquals(before.size(), after.size());
+    for (int i = 0; i < before.size(); i++)
+      assertArrayEquals(before.get(i), after.get(i));
+
+    Number flights = entityManager
+        .createQuery("select coalesce(sum(r.flightCount), 0) from Route r", Number.class)
+        .getSingleResult();
+    assertEquals(flights.doubleValue(), after.stream().mapToDouble(row -> ((Number) row[1]).doubleValue()).sum(), 1e-6);
+  }
+
+  private List<Object[]> rollupSumsByDay() {
+    return entityManager
+        .createQuery("select r.date, sum(r.flightCount), sum(r.routeCount) from RouteRollup r "
+            + "group by r.date order by r.date", Object[].class)
+        .getResultList();
+  }
+
+  @Test
+  public void routesChangedEventSplitsDistantDays() throws Exception {
+    RoutesChangedEvent event = RoutesChangedEvent.ofDates(Arrays.asList(
+        dateParser.parse("2014-01-02"), dateParser.parse("2014-01-01"), dateParser.parse("2016-03-01")));
+
+    List<RoutesChangedEvent.Range> ranges = event.getRanges();
+    assertEquals(2, ranges.size());
+    assertEquals(dateParser.parse("2014-01-01"), ranges.get(0).getFrom());
+    assertEquals(dateParser.parse("2014-01-03").getTime() - 1, ranges.get(0).getTo().getTime());
+    assertEquals(dateParser.parse("2016-03-01"), ranges.get(1).getFrom());
+    assertEquals(dateParser.parse("2016-03-01"), event.and(RoutesChangedEvent.ofDates(
+        Collections.singletonList(dateParser.parse("2015-06-01")))).getRanges().get(2).getFrom());
+    assertTrue(event.and(RoutesChangedEvent.all()).isAll());
+  }
+
+  @Test
+  public void cacheEvictsAfterCommit() throws Exception {
+    routeController.findByYear(2014);
+    Cache yearRoutes = cacheManager.getCache(RouteCacheEvictor.YEAR_ROUTES);
+
+    new TransactionTemplate(transactionManager).execute(status -> {
+      try {
+        routeRepository.save(Route.builder()
+            .airline(routes.get(0).getAirline())
+            .source(routes.get(0).getSource())
+            .destination(routes.get(0).getDestination())
+            .flightCount(1)
+            .date(dateParser.parse("2014-05-01"))
+            .build());
+      } catch (ParseException e) {
+        throw new IllegalStateException(e);
+      }
+
+      //Concurrent readers still see the committed routes
+      assertNotNull(yearRoutes.get(2014));
+      return null;
+    });
+
+    assertNull(yearRoutes.get(2014));
+  }
+
+  @Test
+  public void saveAllAnswersWithItsResult() throws Exception {
+    String json = "["
+        + "{\"date\":\"2013-06-01\",\"delays\":2,\"cancelled\":0,\"passengerCount\":100,"
+        + "\"flightCount\":1,\"airline\":\"AAA\",\"source\":\"NNN\",\"destination\":\"DDD\"},"
+        + "{\"date\":\"2013-06-02\",\"delays\":0,\"cancelled\":0,\"passengerCount\":50,"
+        + "\"flightCount\":1,\"airline\":\"XXX\",\"source\":\"NNN\",\"destination\":\"DDD\"}"
+        + "]";
+
+    MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    MvcResult saved = mockMvc.perform(post("/routes/saveAll")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(json))
+        .andReturn();
+
+    assertEquals(HttpStatus.OK.value(), saved.getResponse().getStatus());
+    JsonNode result = objectMapper.readTree(saved.getResponse().getContentAsByteArray());
+    assertEquals(1, result.get("accepted").asLong());
+    assertEquals(1, result.get("rejected").asLong());
+    assertEquals(1, routeRepository.findByDateBetween(
+        dateParser.parse("2013-06-01"),
+        dateParser.parse("2013-06-30")).size());
+  }
+
+  @Test
+  public void referenceDataCacheFollowsRestWrites() throws Exception {
+    MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+
+    assertEquals(HttpStatus.CREATED.value(), mockMvc.perform(post("/airlines")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"id\":\"ZZZ\",\"name\":\"Zeppelin\"}"))
+        .andReturn().getResponse().getStatus());
+    assertEquals("Zeppelin", referenceDataCache.resolveAirlines(Collections.singleton("ZZZ")).get("ZZZ").getName());
+
+    assertEquals(HttpStatus.NO_CONTENT.value(), mockMvc.perform(put("/airlines/ZZZ")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"name\":\"Zeppelin Air\"}"))
+        .andReturn().getResponse().getStatus());
+    assertEquals("Zeppelin Air", referenceDataCache.resolveAirlines(Collections.singleton("ZZZ")).get("ZZZ").getName());
+
+    assertEquals(HttpStatus.NO_CONTENT.value(), mockMvc.perform(delete("/airlines/ZZZ"))
+        .andReturn().getResponse().getStatus());
+    assertFalse(referenceDataCache.resolveAirlines(Collections.singleton("ZZZ")).containsKey("ZZZ"));
+
+    assertEquals(HttpStatus.CREATED.value(), mockMvc.perform(post("/markets")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"id\":\"BBB\",\"name\":\"Boston\"}"))
+        .andReturn().getResponse().getStatus());
+    assertEquals("Boston", referenceDataCache.resolveMarkets(Collections.singleton("BBB")).get("BBB").getName());
+
+    assertEquals(HttpStatus.NO_CONTENT.value(), mockMvc.perform(delete("/markets/BBB"))
+        .andReturn().getResponse().getStatus());
+    assertFalse(referenceDataCache.resolveMarkets(Collections.singleton("BBB")).containsKey("BBB"));
+  }
+
+  @Test
+  public void referenceDataCacheFollowsRepositoryWrites() {
+    assertEquals("AirBerlin", referenceDataCache.resolveAirlines(Collections.singleton("AAA")).get("AAA").getName());
+    assertEquals("NewYork", referenceDataCache.resolveMarkets(Collections.singleton("NNN")).get("NNN").getName());
+
+    airlineRepository.save(new Airline("Air Berlin", "AAA"));
+    cityRepository.save(Collections.singletonList(new Market("New York", "NNN")));
+    assertEquals("Air Berlin", referenceDataCache.resolveAirlines(Collections.singleton("AAA")).get("AAA").getName());
+    assertEquals("New York", referenceDataCache.resolveMarkets(Collections.singleton("NNN")).get("NNN").getName());
+
+    airlineRepository.save(new Airline("Qantas", "QQQ"));
+    cityRepository.save(new Market("Portland", "PPP"));
+    assertTrue(referenceDataCache.resolveAirlines(Collections.singleton("QQQ")).containsKey("QQQ"));
+    assertTrue(referenceDataCache.resolveMarkets(Collections.singleton("PPP")).containsKey("PPP"));
+
+    airlineRepository.delete("QQQ");
+    cityRepository.delete(cityRepository.findOne("PPP"));
+    assertFalse(referenceDataCache.resolveAirlines(Collections.singleton("QQQ")).containsKey("QQQ"));
+    assertFalse(referenceDataCache.resolveMarkets(Collections.singleton("PPP")).containsKey("PPP"));
+  }
+
   @Before
   public void setUp() {
     routeRepository.deleteAll();